@@ -3,6 +3,8 @@ package org.zakariya.doodle.geom;
 import android.graphics.PointF;
 import android.support.annotation.NonNull;
 
+import org.zakariya.doodle.util.FloatBuffer;
+
 import static org.zakariya.doodle.geom.PointFUtil.distance;
 
 /**
@@ -104,6 +106,91 @@ public class CubicBezierInterpolator {
 		return into;
 	}
 
+	/**
+	 * Flatten the curve by appending the points at t = 1/subdivisions, 2/subdivisions ... 1 to `into as x,y pairs.
+	 * The start point (t = 0) is not appended. Points are computed by forward differencing, so each costs a few adds
+	 * rather than a polynomial evaluation; the final point is written as `end exactly, so accumulated error
+	 * doesn't open gaps between adjoining curves.
+	 *
+	 * @param subdivisions number of points to append, generally from getRecommendedSubdivisions
+	 * @param into         buffer to append to
+	 */
+	public void flatten(int subdivisions, @NonNull FloatBuffer into) {
+		if (subdivisions < 1) {
+			return;
+		}
+
+		// power basis coefficients of P(t) = a*t^3 + b*t^2 + c*t + start
+		final float ax = -start.x + 3 * (startControl.x - endControl.x) + end.x;
+		final float ay = -start.y + 3 * (startControl.y - endControl.y) + end.y;
+		final float bx = 3 * (start.x - 2 * startControl.x + endControl.x);
+		final float by = 3 * (start.y - 2 * startControl.y + endControl.y);
+		final float cx = 3 * (startControl.x - start.x);
+		final float cy = 3 * (startControl.y - start.y);
+
+		// forward differences for step h
+		final float h = 1f / subdivisions;
+		final float h2 = h * h;
+		final float h3 = h2 * h;
+		float d1x = ax * h3 + bx * h2 + cx * h;
+		float d1y = ay * h3 + by * h2 + cy * h;
+		float d2x = 6 * ax * h3 + 2 * bx * h2;
+		float d2y = 6 * ay * h3 + 2 * by * h2;
+		final float d3x = 6 * ax * h3;
+		final float d3y = 6 * ay * h3;
+
+		float px = start.x;
+		float py = start.y;
+		int offset = into.size();
+		final float buffer[] = into.extend(subdivisions * 2);
+		for (int i = 1; i < subdivisions; i++) {
+			px += d1x;
+			py += d1y;
+			d1x += d2x;
+			d1y += d2y;
+			d2x += d3x;
+			d2y += d3y;
+			buffer[offset++] = px;
+			buffer[offset++] = py;
+		}
+
+		buffer[offset++] = end.x;
+		buffer[offset] = end.y;
+	}
+
+	/**
+	 * @return the larger of the lengths of the control polygon's two second differences. This is zero for a straight
+	 * line, and bounds how far the curve bends away from its chords.
+	 */
+	public float getFlatness() {
+		final float d0x = start.x - 2 * startControl.x + endControl.x;
+		final float d0y = start.y - 2 * startControl.y + endControl.y;
+		final float d1x = startControl.x - 2 * endControl.x + end.x;
+		final float d1y = startControl.y - 2 * endControl.y + end.y;
+		return (float) Math.sqrt(Math.max(d0x * d0x + d0y * d0y, d1x * d1x + d1y * d1y));
+	}
+
+	/**
+	 * Get the number of uniform subdivisions needed to keep the flattened curve within `tolerance of the true curve
+	 * when rendered at `scale (Wang's formula). A straight curve needs a single subdivision regardless of length.
+	 *
+	 * @param tolerance max allowed deviation, in rendered units (e.g., device pixels)
+	 * @param scale     the scale at which the curve is being rendered
+	 * @return number of subdivisions, at least 1
+	 */
+	public int getSubdivisions(float tolerance, float scale) {
+		return Math.max((int) Math.ceil(Math.sqrt(0.75f * getFlatness() * scale / tolerance)), 1);
+	}
+
+	/**
+	 * @param subdivisions number of uniform subdivisions
+	 * @param scale        the scale at which the curve is being rendered
+	 * @return upper bound of the deviation, in rendered units, of the curve flattened into `subdivisions segments
+	 */
+	public float getFlatteningError(int subdivisions, float scale) {
+		return 0.75f * getFlatness() * scale / (subdivisions * subdivisions);
+	}
+
 	/**
 	 * @param scale the scale at which the line is being rendered
 	 * @return An estimated number of subdivisions to divide this bezier curve into to represent start visually appendAndSmooth curve.
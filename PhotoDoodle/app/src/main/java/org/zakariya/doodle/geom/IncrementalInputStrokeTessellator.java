@@ -12,7 +12,7 @@ import java.util.ArrayList;
 public class IncrementalInputStrokeTessellator {
 
 	private static final String TAG = "IIST";
-	private static final int MIN_PARTITION_SIZE = 32;
+	private static final int MIN_PARTITION_SIZE = 128;
 
 	public interface Listener {
 		/**
@@ -65,15 +65,44 @@ public class IncrementalInputStrokeTessellator {
 		float getStrokeMaxVelDPps();
 	}
 
+	/**
+	 * Listener which receives the tessellated stroke as Outlines rather than Paths, e.g., to hand it to another thread
+	 * which builds the Paths. When the listener implements OutlineListener no Paths are built, and onLivePathModified
+	 * and onNewStaticPathAvailable aren't called.
+	 */
+	public interface OutlineListener extends Listener {
+		/**
+		 * Outline counterpart of onLivePathModified
+		 *
+		 * @param outline the live outline. It's reused by subsequent calls to add, so copy it to keep it
+		 * @param rect    the rect containing the outline
+		 */
+		void onLiveOutlineModified(Outline outline, RectF rect);
+
+		/**
+		 * Outline counterpart of onNewStaticPathAvailable
+		 *
+		 * @param outline the new chunk of static outline. It isn't modified after this call
+		 * @param rect    the rect containing the outline
+		 */
+		void onNewStaticOutlineAvailable(Outline outline, RectF rect);
+	}
+
 	private InputStroke inputStroke;
+	private InputStroke committedInputStroke = new InputStroke();
 	private ArrayList<InputStroke> inputStrokes = new ArrayList<>();
 	private InputStrokeTessellator inputStrokeTessellator;
 	private WeakReference<Listener> listenerWeakReference;
 	private float optimizationThreshold;
 	private Path livePath;
+	private Outline liveOutline;
 	private ArrayList<Path> staticPaths = new ArrayList<>();
+	private int staticChunkCount;
 	private RectF livePathBounds = new RectF();
 	private RectF staticPathBounds = new RectF();
+	private RectF invalidationRect = new RectF();
+	private float singlePosition[] = new float[2];
+	private long singleTimestamp[] = new long[1];
 
 	/**
 	 * Create new IncrementalStrokeTessellator
@@ -85,13 +114,28 @@ public class IncrementalInputStrokeTessellator {
 		listenerWeakReference = new WeakReference<>(listener);
 		optimizationThreshold = listener.getInputStrokeOptimizationThreshold();
 		inputStroke = new InputStroke(optimizationThreshold);
+		inputStroke.setStreamingOptimization(true);
 		inputStrokeTessellator = new InputStrokeTessellator(inputStroke, listener.getStrokeMinWidth(), listener.getStrokeMaxWidth(), listener.getStrokeMaxVelDPps());
 	}
 
+	/**
+	 * Set how finely the stroke's outline is flattened. See InputStrokeTessellator.setSubdivisionTolerance
+	 *
+	 * @param tolerance max deviation of the flattened curves, in rendered units (generally device pixels)
+	 * @param scale     the scale from canvas units to rendered units
+	 */
+	public void setSubdivisionTolerance(float tolerance, float scale) {
+		inputStrokeTessellator.setSubdivisionTolerance(tolerance, scale);
+	}
+
 	public InputStroke getInputStroke() {
 		return inputStroke;
 	}
 
+	/**
+	 * @return the finished stroke, available after finish(). The chunks tessellated while drawing are joined into a single
+	 * InputStroke, so replaying it produces the same outline as the continuation-tessellated chunks.
+	 */
 	public ArrayList<InputStroke> getInputStrokes() {
 		return inputStrokes;
 	}
@@ -101,9 +145,38 @@ public class IncrementalInputStrokeTessellator {
 	}
 
 	public void add(float x, float y, long timestamp) {
-		InputStroke.Point lastPoint = inputStroke.lastPoint();
-		boolean shouldPartition = inputStroke.add(x, y, timestamp);
-		InputStroke.Point currentPoint = inputStroke.lastPoint();
+		singlePosition[0] = x;
+		singlePosition[1] = y;
+		singleTimestamp[0] = timestamp;
+		add(singlePosition, singleTimestamp, 1);
+	}
+
+	/**
+	 * Add a batch of samples, e.g., a MotionEvent's historical samples followed by its current sample. The input
+	 * stroke's velocities are updated once, and the live path is retessellated once, for the whole batch.
+	 *
+	 * @param positions  sample positions, packed as x0,y0,x1,y1... (the layout used by Matrix.mapPoints)
+	 * @param timestamps sample timestamps in milliseconds
+	 * @param count      number of samples to add from positions and timestamps
+	 */
+	public void add(float positions[], long timestamps[], int count) {
+		if (count <= 0) {
+			return;
+		}
+
+		boolean hadPreviousPoint = !inputStroke.isEmpty();
+		int startIndex = Math.max(inputStroke.size() - 1, 0);
+		if (hadPreviousPoint) {
+			invalidationRect.set(inputStroke.getX(-1), inputStroke.getY(-1), inputStroke.getX(-1), inputStroke.getY(-1));
+		} else {
+			invalidationRect.set(positions[0], positions[1], positions[0], positions[1]);
+		}
+
+		for (int i = 0; i < count; i++) {
+			invalidationRect.union(positions[i * 2], positions[i * 2 + 1]);
+		}
+
+		boolean shouldPartition = inputStroke.add(positions, timestamps, count);
 
 		if (!shouldPartition && inputStroke.size() > MIN_PARTITION_SIZE) {
 			shouldPartition = true;
@@ -112,52 +185,72 @@ public class IncrementalInputStrokeTessellator {
 		Listener listener = listenerWeakReference.get();
 		if (listener != null) {
 
-			if (lastPoint != null && currentPoint != null) {
-				RectF invalidationRect = RectFUtil.containing(lastPoint.position, currentPoint.position);
-				listener.onInputStrokeModified(inputStroke, inputStroke.size() - 2, inputStroke.size() - 1, invalidationRect);
+			if (hadPreviousPoint) {
+				listener.onInputStrokeModified(inputStroke, Math.min(startIndex, inputStroke.size() - 1), inputStroke.size() - 1, new RectF(invalidationRect));
 			}
 
 
-			// TODO: this works, but I need to understand why using the continuation fails
-			boolean isContinuation = false;
-			int tessellationStartIndex = 0;
-
-//			boolean isContinuation = !staticPaths.isEmpty();
-//			int tessellationStartIndex = isContinuation ? 1 : 0;
-
-			if (shouldPartition) {
-				// adding the point triggered a partition
-				Path newStaticPathChunk = inputStrokeTessellator.tessellate(tessellationStartIndex, isContinuation, true, true);
-
-				if (newStaticPathChunk != null && !newStaticPathChunk.isEmpty()) {
-
-					// save this input stroke since we're starting a new one
-					inputStrokes.add(inputStroke.copy());
-
-					InputStroke.Point lastPointInStroke = inputStroke.get(-1);
-					lastPointInStroke.freezeVelocity = true;
+			if (shouldPartition && inputStroke.size() > 2) {
+				// adding the point triggered a partition. Freeze the chunk up to the second-to-last point; the last
+				// segment is left to the next chunk, so the seam point's tangent sees both of its neighbors
+				boolean isContinuation = staticChunkCount > 0;
+				int seamIndex = inputStroke.size() - 2;
+				Outline newStaticOutlineChunk = inputStrokeTessellator.tessellate(0, seamIndex, isContinuation, !isContinuation, false, new Outline());
+
+				if (!newStaticOutlineChunk.isEmpty()) {
+					inputStrokeTessellator.beginContinuation();
+					commitInputStrokePoints(seamIndex);
+
+					// seed the next chunk with the seam point and the point following it
+					float seamX = inputStroke.getX(seamIndex);
+					float seamY = inputStroke.getY(seamIndex);
+					long seamTimestamp = inputStroke.getTimestamp(seamIndex);
+					float seamVelocity = inputStroke.getVelocity(seamIndex);
+					float lastX = inputStroke.getX(-1);
+					float lastY = inputStroke.getY(-1);
+					long lastTimestamp = inputStroke.getTimestamp(-1);
+					float lastVelocity = inputStroke.getVelocity(-1);
 					inputStroke.clear();
-					inputStroke.getPoints().add(lastPointInStroke);
+					inputStroke.append(seamX, seamY, seamTimestamp, seamVelocity, true);
+					inputStroke.append(lastX, lastY, lastTimestamp, lastVelocity, true);
 
-					staticPaths.add(newStaticPathChunk);
-					newStaticPathChunk.computeBounds(staticPathBounds, true);
-					listener.onNewStaticPathAvailable(newStaticPathChunk, staticPathBounds);
+					notifyNewStaticChunk(listener, newStaticOutlineChunk);
 				}
+			}
 
+			// the live path is the current chunk, continuing from the last static chunk, if any. Only the tail
+			// affected by the new point is retessellated, so chunks can be long without slowing down each add
+			boolean isContinuation = staticChunkCount > 0;
+			if (listener instanceof OutlineListener) {
+				if (liveOutline == null) {
+					liveOutline = new Outline();
+				}
+
+				inputStrokeTessellator.tessellateIncrementally(isContinuation, !isContinuation, true, liveOutline);
+				if (!liveOutline.isEmpty()) {
+					liveOutline.getBounds(livePathBounds);
+					((OutlineListener) listener).onLiveOutlineModified(liveOutline, livePathBounds);
+				}
 			} else {
-				livePath = inputStrokeTessellator.tessellate(tessellationStartIndex, isContinuation, true, true);
+				livePath = inputStrokeTessellator.tessellateIncrementally(isContinuation, !isContinuation, true);
 				if (!livePath.isEmpty()) {
-					livePath.computeBounds(livePathBounds, true);
+					inputStrokeTessellator.getOutline().getBounds(livePathBounds);
 					listener.onLivePathModified(livePath, livePathBounds);
 				}
 			}
 		}
 	}
 
+	/**
+	 * @return the live path, or null if the stroke is finished or the listener is an OutlineListener
+	 */
 	public Path getLivePath() {
 		return livePath;
 	}
 
+	/**
+	 * @return the static path chunks, or an empty list if the listener is an OutlineListener
+	 */
 	public ArrayList<Path> getStaticPaths() {
 		return staticPaths;
 	}
@@ -172,20 +265,53 @@ public class IncrementalInputStrokeTessellator {
 
 	public void finish() {
 		inputStroke.finish();
-		inputStrokes.add(inputStroke.copy());
-
 		livePath = null;
+		liveOutline = null;
 
-		// in case the stroke was finished before growing long enough to chunk, we need to commit it
+		// commit the final chunk, continuing from the last static chunk, if any
 		Listener listener = listenerWeakReference.get();
 		if (listener != null && !inputStroke.isEmpty()) {
-			Path newStaticPathChunk = inputStrokeTessellator.tessellate(false, true, true);
+			boolean isContinuation = staticChunkCount > 0;
+			Outline newStaticOutlineChunk = inputStrokeTessellator.tessellate(0, inputStroke.size() - 1, isContinuation, !isContinuation, true, new Outline());
 
-			if (!newStaticPathChunk.isEmpty()) {
-				staticPaths.add(newStaticPathChunk);
-				newStaticPathChunk.computeBounds(staticPathBounds, true);
-				listener.onNewStaticPathAvailable(newStaticPathChunk, staticPathBounds);
+			if (!newStaticOutlineChunk.isEmpty()) {
+				notifyNewStaticChunk(listener, newStaticOutlineChunk);
 			}
 		}
+
+		commitInputStrokePoints(inputStroke.size() - 1);
+		committedInputStroke.invalidate();
+		inputStrokes.add(committedInputStroke);
+	}
+
+	/**
+	 * Record a frozen chunk of the stroke and pass it to the listener, as a Path unless the listener is an OutlineListener
+	 */
+	private void notifyNewStaticChunk(Listener listener, Outline chunk) {
+		staticChunkCount++;
+		chunk.getBounds(staticPathBounds);
+
+		if (listener instanceof OutlineListener) {
+			((OutlineListener) listener).onNewStaticOutlineAvailable(chunk, staticPathBounds);
+		} else {
+			Path path = new Path();
+			path.setFillType(Path.FillType.WINDING);
+			chunk.toPath(path);
+			staticPaths.add(path);
+			listener.onNewStaticPathAvailable(path, staticPathBounds);
+		}
+	}
+
+	/**
+	 * Append the current chunk's points up to and including endIndex to the committed stroke. A chunk's first
+	 * point is the previous chunk's seam point, so it's skipped if the committed stroke already has it.
+	 *
+	 * @param endIndex index of the last point of the current chunk to commit
+	 */
+	private void commitInputStrokePoints(int endIndex) {
+		int startIndex = committedInputStroke.isEmpty() ? 0 : 1;
+		for (int i = startIndex; i <= endIndex; i++) {
+			committedInputStroke.append(inputStroke.getX(i), inputStroke.getY(i), inputStroke.getTimestamp(i), inputStroke.getVelocity(i), true);
+		}
 	}
 }
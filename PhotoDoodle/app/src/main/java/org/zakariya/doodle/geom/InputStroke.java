@@ -5,18 +5,24 @@ import android.graphics.RectF;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.Nullable;
-import android.text.TextUtils;
-import android.util.Pair;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoSerializable;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
+import org.zakariya.doodle.util.FloatBuffer;
+import org.zakariya.doodle.util.LongBuffer;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Created by shamyl on 9/28/15.
+ * Stores its samples as parallel primitive buffers (struct-of-arrays) rather than as a list of
+ * Point instances. Use the indexed accessors (getX, getY, getTimestamp, getVelocity) in loops;
+ * get(i), firstPoint() and lastPoint() materialize a Point copy and are for convenience only.
  */
 public class InputStroke implements Parcelable, KryoSerializable {
 
@@ -26,15 +32,46 @@ public class InputStroke implements Parcelable, KryoSerializable {
 	// and autoOptimizationThreshold is > 0, the line will be optimized in-place.
 	private static final float AUTO_OPTIMIZE_CORNER_THRESHOLD = (float) Math.cos(45);
 
+	// when streaming optimization is enabled, at most this many samples may be absorbed into
+	// the provisional tail segment before the tail is committed as a new anchor
+	static final int STREAMING_OPTIMIZATION_WINDOW_SIZE = 8;
+
 	static final int MIN_OPTIMIZATION_SIZE = 8;
+	static final int INITIAL_CAPACITY = 16;
 	static final int POINT_VELOCITY_SMOOTHING_KERNEL_SIZE = 7; // MUST BE ODD
 	static float POINT_VELOCITY_SMOOTHING_KERNEL[];
 	static int POINT_VELOCITY_SMOOTHING_KERNEL_BACKTRACK = 0;
 
-	private ArrayList<Point> points = new ArrayList<>();
+	// the columns' sizes are kept equal to size
+	private FloatBuffer xs;
+	private FloatBuffer ys;
+	private FloatBuffer velocities;
+	private LongBuffer timestamps;
+	private BitSet frozenVelocities = new BitSet();
+	private int size = 0;
+
+	// lowest index whose position or velocity has changed since clearModifiedRange() was last called
+	private int firstModifiedIndex = 0;
 	private RectF boundingRect = new RectF();
 	private float autoOptimizationThreshold = 0;
 
+	// scratch storage for the auto-optimization corner test, so add() doesn't allocate
+	private PointF previousSegmentDir = new PointF();
+	private PointF newSegmentDir = new PointF();
+
+	// streaming optimization state. The anchor is the last committed point; samples absorbed
+	// into the provisional tail segment since then are remembered in the window
+	private boolean streamingOptimization = false;
+	private int streamingAnchorIndex = 0;
+	private int streamingWindowCount = 0;
+	private float streamingWindowXs[];
+	private float streamingWindowYs[];
+
+	// scratch storage for optimization; allocated lazily and released by finish()
+	private BitSet keepMask;
+	private int rangeStack[];
+	private LineSegment rangeLine;
+
 	static {
 		// generate a kernel with linear fade out from center
 		final int kernelSize = POINT_VELOCITY_SMOOTHING_KERNEL_SIZE;
@@ -61,30 +98,138 @@ public class InputStroke implements Parcelable, KryoSerializable {
 	}
 
 	public InputStroke() {
+		this(0, INITIAL_CAPACITY);
 	}
 
 	public InputStroke(float autoOptimizationThreshold) {
-		this.autoOptimizationThreshold = autoOptimizationThreshold;
+		this(autoOptimizationThreshold, INITIAL_CAPACITY);
 	}
 
-	public ArrayList<Point> getPoints() {
-		return points;
+	public InputStroke(float autoOptimizationThreshold, int initialCapacity) {
+		this.autoOptimizationThreshold = autoOptimizationThreshold;
+		allocate(Math.max(initialCapacity, 2));
 	}
 
 	public int size() {
-		return points.size();
+		return size;
 	}
 
 	public boolean isEmpty() {
-		return points.isEmpty();
+		return size == 0;
 	}
 
+	/**
+	 * Get a copy of the point at index i. This allocates; prefer getX/getY/getTimestamp/getVelocity in loops.
+	 *
+	 * @param i index of the point, if negative, indexes backwards from end
+	 * @return a Point copy of the sample at index i
+	 */
 	public Point get(int i) {
-		if (i < 0) {
-			return get(points.size() + i);
-		} else {
-			return points.get(i);
-		}
+		i = resolveIndex(i);
+		Point p = new Point(xs.get(i), ys.get(i), timestamps.get(i));
+		p.velocity = velocities.get(i);
+		p.freezeVelocity = frozenVelocities.get(i);
+		return p;
+	}
+
+	public float getX(int i) {
+		return xs.get(resolveIndex(i));
+	}
+
+	public float getY(int i) {
+		return ys.get(resolveIndex(i));
+	}
+
+	public long getTimestamp(int i) {
+		return timestamps.get(resolveIndex(i));
+	}
+
+	public float getVelocity(int i) {
+		return velocities.get(resolveIndex(i));
+	}
+
+	public boolean isVelocityFrozen(int i) {
+		return frozenVelocities.get(resolveIndex(i));
+	}
+
+	public void setVelocityFrozen(int i, boolean frozen) {
+		frozenVelocities.set(resolveIndex(i), frozen);
+	}
+
+	/**
+	 * Move the point at index i. Does not recompute velocities or bounds; call invalidate() when done editing.
+	 *
+	 * @param i index of point to move
+	 * @param x new x position
+	 * @param y new y position
+	 */
+	public void set(int i, float x, float y) {
+		i = resolveIndex(i);
+		xs.set(i, x);
+		ys.set(i, y);
+		markModified(i);
+	}
+
+	/**
+	 * Points at indices below this value are unchanged (position and velocity) since the last call to clearModifiedRange().
+	 * This lets a single consumer, e.g., an InputStrokeTessellator caching per-point geometry, update incrementally.
+	 *
+	 * @return the lowest index modified since clearModifiedRange(), or size() if nothing has changed
+	 */
+	public int getFirstModifiedIndex() {
+		return Math.min(firstModifiedIndex, size);
+	}
+
+	/**
+	 * Mark all current points as unmodified. See getFirstModifiedIndex
+	 */
+	public void clearModifiedRange() {
+		firstModifiedIndex = size;
+	}
+
+	/**
+	 * Get a position into a PointF without materializing a Point
+	 *
+	 * @param i    index of point
+	 * @param into PointF to receive position
+	 * @return `into, for convenience
+	 */
+	public PointF getPosition(int i, PointF into) {
+		i = resolveIndex(i);
+		into.x = xs.get(i);
+		into.y = ys.get(i);
+		return into;
+	}
+
+	/**
+	 * Direct access to the backing x coordinate array. Only the first size() elements are valid, and the
+	 * array may be replaced as the stroke grows, so don't hold on to it across modifications.
+	 *
+	 * @return the backing x coordinate array
+	 */
+	public float[] getXs() {
+		return xs.getBackingArray();
+	}
+
+	/**
+	 * @return the backing y coordinate array. See getXs for caveats.
+	 */
+	public float[] getYs() {
+		return ys.getBackingArray();
+	}
+
+	/**
+	 * @return the backing velocity array. See getXs for caveats.
+	 */
+	public float[] getVelocities() {
+		return velocities.getBackingArray();
+	}
+
+	/**
+	 * @return the backing timestamp array. See getXs for caveats.
+	 */
+	public long[] getTimestamps() {
+		return timestamps.getBackingArray();
 	}
 
 	public float getAutoOptimizationThreshold() {
@@ -95,6 +240,23 @@ public class InputStroke implements Parcelable, KryoSerializable {
 		this.autoOptimizationThreshold = Math.max(autoOptimizationThreshold, 0);
 	}
 
+	public boolean isStreamingOptimization() {
+		return streamingOptimization;
+	}
+
+	/**
+	 * Enable online simplification. When enabled (and autoOptimizationThreshold > 0), each call to add()
+	 * decides whether the new sample can replace the current tail point by testing a bounded window of recently
+	 * absorbed samples against the segment from the last committed point to the new sample. This costs O(1) per
+	 * add() and keeps the stroke compact as it's drawn, in place of the batch re-optimization triggered by sharp corners.
+	 *
+	 * @param streamingOptimization if true, simplify online as points are added
+	 */
+	public void setStreamingOptimization(boolean streamingOptimization) {
+		this.streamingOptimization = streamingOptimization;
+		resetStreamingOptimization();
+	}
+
 	/**
 	 * Get the tangent of the line at a given point
 	 *
@@ -102,90 +264,276 @@ public class InputStroke implements Parcelable, KryoSerializable {
 	 * @return the tangent vector, computed as the bisecting unit vector between the preceeding line segment and the outgoing line segment, pointing "forward"
 	 */
 	public PointF getTangent(int i) {
-		final int count = points.size();
+		return getTangent(i, new PointF());
+	}
+
+	/**
+	 * Get the tangent of the line at a given point without allocating
+	 *
+	 * @param i    the index of the point of interest
+	 * @param into receives the tangent vector
+	 * @return `into, for convenience
+	 */
+	public PointF getTangent(int i, PointF into) {
+		final int count = size;
 		if (count < 2) {
-			return new PointF(0, 0);
+			into.x = 0;
+			into.y = 0;
+			return into;
 		}
 
+		final float xs[] = this.xs.getBackingArray();
+		final float ys[] = this.ys.getBackingArray();
 		if (i == 0) {
-			return PointFUtil.dir(get(0).position, get(1).position).first;
+			PointFUtil.dir(xs[0], ys[0], xs[1], ys[1], into);
 		} else if (i == count - 1) {
-			return PointFUtil.dir(get(i - 1).position, get(i).position).first;
+			PointFUtil.dir(xs[i - 1], ys[i - 1], xs[i], ys[i], into);
 		} else {
-			PointF a = get(i - 1).position;
-			PointF b = get(i).position;
-			PointF c = get(i + 1).position;
-
-			Pair<PointF, Float> abDir = PointFUtil.dir(a, b);
-			PointF abPrime = PointFUtil.rotateCCW(abDir.first);
-
-			Pair<PointF, Float> bcDir = PointFUtil.dir(b, c);
-			PointF bcPrime = PointFUtil.rotateCCW(bcDir.first);
-
-			PointF half = new PointF(abPrime.x + bcPrime.x, abPrime.y + bcPrime.y);
-			if (PointFUtil.length2(half) > 1e-4) {
-				return PointFUtil.normalize(PointFUtil.rotateCW(half)).first;
+			// the CCW-rotated unit directions of the incoming and outgoing segments
+			PointFUtil.dir(xs[i - 1], ys[i - 1], xs[i], ys[i], into);
+			final float abPrimeX = -into.y;
+			final float abPrimeY = into.x;
+
+			PointFUtil.dir(xs[i], ys[i], xs[i + 1], ys[i + 1], into);
+			final float bcPrimeX = -into.y;
+			final float bcPrimeY = into.x;
+
+			final float halfX = abPrimeX + bcPrimeX;
+			final float halfY = abPrimeY + bcPrimeY;
+			if (PointFUtil.length2(halfX, halfY) > 1e-4) {
+				// rotate half CW and normalize
+				PointFUtil.normalize(halfY, -halfX, into);
 			} else {
-				return bcPrime;
+				into.x = bcPrimeX;
+				into.y = bcPrimeY;
 			}
 		}
+
+		return into;
 	}
 
 	public PointF getSegmentDirection(int i) {
-		if (i < size() - 1) {
-			PointF a = points.get(i).position;
-			PointF b = points.get(i + 1).position;
-			return PointFUtil.dir(a, b).first;
+		PointF dir = new PointF();
+		return getSegmentDirection(i, dir) ? dir : null;
+	}
+
+	/**
+	 * Get the unit direction of the segment from point i to point i+1 without allocating
+	 *
+	 * @param i    index of the segment's first point
+	 * @param into receives the direction
+	 * @return true if segment i exists, false otherwise (in which case `into is untouched)
+	 */
+	public boolean getSegmentDirection(int i, PointF into) {
+		if (i < size - 1) {
+			final float xs[] = this.xs.getBackingArray();
+			final float ys[] = this.ys.getBackingArray();
+			PointFUtil.dir(xs[i], ys[i], xs[i + 1], ys[i + 1], into);
+			return true;
 		} else {
-			return null;
+			return false;
 		}
 	}
 
 	@Nullable
 	public Point firstPoint() {
-		return points.isEmpty() ? null : points.get(0);
+		return isEmpty() ? null : get(0);
 	}
 
 	@Nullable
 	public Point lastPoint() {
-		return points.isEmpty() ? null : points.get(points.size() - 1);
+		return isEmpty() ? null : get(size - 1);
 	}
 
 	public boolean add(float x, float y, long timestamp) {
-		Point p = new Point(x, y, timestamp);
-		points.add(p);
+		final int index = addSample(x, y, timestamp);
+		final boolean isCorner = isAutoOptimizationCorner();
+		updateVelocitiesFrom(index);
 
-		final int size = points.size();
+		return isCorner && optimize(autoOptimizationThreshold) > 0;
+	}
+
+	/**
+	 * Add a batch of samples, e.g., the historical samples batched into a MotionEvent. This is equivalent to
+	 * calling add(x,y,timestamp) for each sample, except velocities are recomputed once for the whole batch,
+	 * and auto optimization, if triggered by a corner anywhere in the batch, runs once after the batch is added.
+	 *
+	 * @param positions  sample positions, packed as x0,y0,x1,y1... (the layout used by Matrix.mapPoints)
+	 * @param timestamps sample timestamps in milliseconds
+	 * @param count      number of samples to add from positions and timestamps
+	 * @return true if the batch triggered an auto optimization
+	 */
+	public boolean add(float positions[], long timestamps[], int count) {
+		if (count <= 0) {
+			return false;
+		}
+
+		ensureCapacity(size + count);
+
+		int firstIndex = Integer.MAX_VALUE;
+		boolean isCorner = false;
+		for (int i = 0; i < count; i++) {
+			firstIndex = Math.min(firstIndex, addSample(positions[i * 2], positions[i * 2 + 1], timestamps[i]));
+			isCorner = isCorner || isAutoOptimizationCorner();
+		}
+
+		updateVelocitiesFrom(firstIndex);
+
+		return isCorner && optimize(autoOptimizationThreshold) > 0;
+	}
 
-		// since we use a smoothing kernel, each time we add a point, we need to recalculate
-		// the velocities of some number of points leading up to the newly added point
-		for (int i = Math.max(size - POINT_VELOCITY_SMOOTHING_KERNEL_BACKTRACK, 0); i < size; i++) {
-			updateVelocityOfPoint(i);
+	/**
+	 * Add a sample's position and timestamp, either replacing the tail point (when streaming optimization absorbs it)
+	 * or appending, and grow the bounding rect to include it. Velocities are not updated.
+	 *
+	 * @return index the sample was written to
+	 */
+	private int addSample(float x, float y, long timestamp) {
+		if (streamingOptimization && autoOptimizationThreshold > 0 && canReplaceTail(x, y)) {
+			final int tail = size - 1;
+			xs.set(tail, x);
+			ys.set(tail, y);
+			timestamps.set(tail, timestamp);
+			frozenVelocities.clear(tail);
+		} else {
+			appendPoint(x, y, timestamp, 0, false);
 		}
 
-		if (points.size() == 1) {
+		if (size == 1) {
 			// give it a little space since a point has no area
 			boundingRect.set(x - 0.5f, y - 0.5f, x + 0.5f, y + 0.5f);
 		} else {
 			boundingRect.union(x, y);
 		}
 
-		boolean didOptimize = false;
-		if (autoOptimizationThreshold > 0 && size > MIN_OPTIMIZATION_SIZE) {
+		return size - 1;
+	}
+
+	/**
+	 * Since we use a smoothing kernel, each time we add a point, we need to recalculate
+	 * the velocities of some number of points leading up to the newly added point.
+	 * A point's velocity is last updated by the add which brings the stroke to POINT_VELOCITY_SMOOTHING_KERNEL_BACKTRACK
+	 * points past it, so each point is evaluated as if the stroke ended there. This makes a batch add produce
+	 * the same velocities as adding its samples one at a time.
+	 *
+	 * @param index the lowest index written by the add
+	 */
+	private void updateVelocitiesFrom(int index) {
+		final int firstUpdatedIndex = Math.max(index + 1 - POINT_VELOCITY_SMOOTHING_KERNEL_BACKTRACK, 0);
+		for (int i = firstUpdatedIndex; i < size; i++) {
+			updateVelocityOfPoint(i, Math.min(i + POINT_VELOCITY_SMOOTHING_KERNEL_BACKTRACK, size));
+		}
+		markModified(firstUpdatedIndex);
+	}
+
+	/**
+	 * @return true if auto optimization (when not streaming) is enabled and the last segment makes a tight corner with the one preceding it
+	 */
+	private boolean isAutoOptimizationCorner() {
+		if (!streamingOptimization && autoOptimizationThreshold > 0 && size > MIN_OPTIMIZATION_SIZE) {
 
 			// look to see if the newly added segment represents a tight corner to the previous segment.
 			int newSegmentIndex = size - 2;
 			int previousSegmentIndex = size - 3;
-			PointF previousSegmentDir = getSegmentDirection(previousSegmentIndex);
-			PointF newSegmentDir = getSegmentDirection(newSegmentIndex);
-			float dot = PointFUtil.dot(previousSegmentDir, newSegmentDir);
+			getSegmentDirection(previousSegmentIndex, previousSegmentDir);
+			getSegmentDirection(newSegmentIndex, newSegmentDir);
+			return PointFUtil.dot(previousSegmentDir, newSegmentDir) < AUTO_OPTIMIZE_CORNER_THRESHOLD;
+		}
+
+		return false;
+	}
 
-			if (dot < AUTO_OPTIMIZE_CORNER_THRESHOLD) {
-				didOptimize = optimize(autoOptimizationThreshold) > 0;
+	/**
+	 * Streaming optimization test, in the spirit of Reumann-Witkam/Opheim: the provisional tail point may be
+	 * replaced by (x,y) if the tail and every sample previously absorbed into it lie within the optimization
+	 * threshold of the segment from the anchor to (x,y). If not, the tail is committed as the new anchor.
+	 * NOTE: As with optimize(), the threshold is compared against squared distances.
+	 *
+	 * @param x x position of incoming sample
+	 * @param y y position of incoming sample
+	 * @return true if the incoming sample should replace the tail point, false if it should be appended
+	 */
+	private boolean canReplaceTail(float x, float y) {
+		final int tail = size - 1;
+		if (tail <= streamingAnchorIndex) {
+			return false;
+		}
+
+		if (streamingWindowXs == null) {
+			streamingWindowXs = new float[STREAMING_OPTIMIZATION_WINDOW_SIZE];
+			streamingWindowYs = new float[STREAMING_OPTIMIZATION_WINDOW_SIZE];
+		}
+
+		if (rangeLine == null) {
+			rangeLine = new LineSegment();
+		}
+
+		final float xs[] = this.xs.getBackingArray();
+		final float ys[] = this.ys.getBackingArray();
+		boolean withinThreshold = streamingWindowCount < STREAMING_OPTIMIZATION_WINDOW_SIZE;
+		if (withinThreshold) {
+			final LineSegment line = rangeLine;
+			line.set(xs[streamingAnchorIndex], ys[streamingAnchorIndex], x, y);
+			withinThreshold = line.distanceSquared(xs[tail], ys[tail], true) <= autoOptimizationThreshold;
+			for (int i = 0; i < streamingWindowCount && withinThreshold; i++) {
+				withinThreshold = line.distanceSquared(streamingWindowXs[i], streamingWindowYs[i], true) <= autoOptimizationThreshold;
 			}
 		}
 
-		return didOptimize;
+		if (withinThreshold) {
+			streamingWindowXs[streamingWindowCount] = xs[tail];
+			streamingWindowYs[streamingWindowCount] = ys[tail];
+			streamingWindowCount++;
+			return true;
+		} else {
+			streamingAnchorIndex = tail;
+			streamingWindowCount = 0;
+			return false;
+		}
+	}
+
+	private void resetStreamingOptimization() {
+		streamingAnchorIndex = Math.max(size - 1, 0);
+		streamingWindowCount = 0;
+	}
+
+	/**
+	 * Append a sample verbatim - velocities of neighboring points are not recomputed, bounds are not updated
+	 * and no auto optimization is performed. Used to seed a stroke with known values, e.g., when continuing
+	 * from the tail of a previous stroke, or when deserializing. Appended points are never replaced by
+	 * streaming optimization.
+	 *
+	 * @param x              x position
+	 * @param y              y position
+	 * @param timestamp      timestamp in milliseconds
+	 * @param velocity       velocity in Dp-per-second
+	 * @param freezeVelocity if true, the velocity will not be recomputed as points are added
+	 */
+	public void append(float x, float y, long timestamp, float velocity, boolean freezeVelocity) {
+		appendPoint(x, y, timestamp, velocity, freezeVelocity);
+		resetStreamingOptimization();
+	}
+
+	private void appendPoint(float x, float y, long timestamp, float velocity, boolean freezeVelocity) {
+		xs.add(x);
+		ys.add(y);
+		timestamps.add(timestamp);
+		velocities.add(velocity);
+		frozenVelocities.set(size, freezeVelocity);
+		markModified(size);
+		size++;
+	}
+
+	/**
+	 * Make sure backing storage can hold at least `capacity points without reallocating
+	 *
+	 * @param capacity the number of points to be able to hold
+	 */
+	public void ensureCapacity(int capacity) {
+		xs.ensureCapacity(capacity);
+		ys.ensureCapacity(capacity);
+		velocities.ensureCapacity(capacity);
+		timestamps.ensureCapacity(capacity);
 	}
 
 	public boolean add(float x, float y) {
@@ -193,18 +541,26 @@ public class InputStroke implements Parcelable, KryoSerializable {
 	}
 
 	public void finish() {
-		if (autoOptimizationThreshold > 0 && points.size() > 2) {
+		if (autoOptimizationThreshold > 0 && size > 2) {
 			optimize(autoOptimizationThreshold);
 		}
+
+		releaseOptimizationScratch();
 	}
 
 	public void invalidate() {
 		computeBoundingRect();
 	}
 
+	/**
+	 * Remove all points. Backing storage capacity is retained.
+	 */
 	public void clear() {
-		points.clear();
+		truncate(0);
+		firstModifiedIndex = 0;
+		frozenVelocities.clear();
 		boundingRect = new RectF();
+		resetStreamingOptimization();
 	}
 
 	public RectF getBoundingRect() {
@@ -213,11 +569,11 @@ public class InputStroke implements Parcelable, KryoSerializable {
 
 	public RectF computeBoundingRect() {
 		if (!isEmpty()) {
-			Point p = get(0);
-			boundingRect = new RectF(p.position.x - 0.5f, p.position.y - 0.5f, p.position.x + 0.5f, p.position.y + 0.5f);
-			for (int i = 1, N = size(); i < N; i++) {
-				p = get(i);
-				boundingRect.union(p.position.x, p.position.y);
+			final float xs[] = this.xs.getBackingArray();
+			final float ys[] = this.ys.getBackingArray();
+			boundingRect = new RectF(xs[0] - 0.5f, ys[0] - 0.5f, xs[0] + 0.5f, ys[0] + 0.5f);
+			for (int i = 1; i < size; i++) {
+				boundingRect.union(xs[i], ys[i]);
 			}
 		} else {
 			boundingRect = new RectF();
@@ -228,7 +584,14 @@ public class InputStroke implements Parcelable, KryoSerializable {
 
 	@Override
 	public String toString() {
-		return TextUtils.join(",", points);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append('(').append(xs.get(i)).append(',').append(ys.get(i)).append(')');
+		}
+		return sb.toString();
 	}
 
 	@Override
@@ -237,30 +600,220 @@ public class InputStroke implements Parcelable, KryoSerializable {
 	}
 
 	public InputStroke copy() {
-		InputStroke c = new InputStroke();
-		int size = points.size();
-		c.points.ensureCapacity(size);
-		for (int i = 0; i < size; i++) {
-			c.points.add(points.get(i).copy());
-		}
+		InputStroke c = new InputStroke(0, size);
+		c.appendColumns(this, 0, size);
+		c.frozenVelocities = (BitSet) frozenVelocities.clone();
 
 		return c;
 	}
 
 	/**
-	 * Optimizes this InputStroke to use fewer points
+	 * Copy a range of points, keeping their velocities
+	 *
+	 * @param start index of first point to copy
+	 * @param end   index after last point to copy
+	 * @return a new InputStroke holding points [start, end)
+	 */
+	public InputStroke copy(int start, int end) {
+		final int count = end - start;
+		InputStroke c = new InputStroke(0, count);
+		c.appendColumns(this, start, count);
+		c.frozenVelocities = frozenVelocities.get(start, end);
+		c.invalidate();
+
+		return c;
+	}
+
+	/**
+	 * Cut away the part of the stroke lying within a capsule - the area swept by a circle moving from a to b. Each
+	 * segment crossing the capsule's edge is split where it enters and leaves, with interpolated points (position,
+	 * velocity and timestamp) ending and starting the remaining pieces, so a long straight segment is cut even if
+	 * none of its points lie in the capsule. This works on the stroke's centerline, not its outline: ink reaching
+	 * into the capsule from a piece outside it is kept.
+	 *
+	 * @param ax     x of capsule start
+	 * @param ay     y of capsule start
+	 * @param bx     x of capsule end
+	 * @param by     y of capsule end
+	 * @param radius capsule radius
+	 * @return null if the stroke doesn't touch the capsule, otherwise the pieces of 2 or more points outside it, as new InputStrokes, which may be empty
+	 */
+	@Nullable
+	public ArrayList<InputStroke> cut(float ax, float ay, float bx, float by, float radius) {
+		final float xs[] = this.xs.getBackingArray();
+		final float ys[] = this.ys.getBackingArray();
+		final float span[] = new float[2];
+
+		if (size == 1) {
+			return intersectCapsule(xs[0], ys[0], xs[0], ys[0], ax, ay, bx, by, radius, span) ? new ArrayList<InputStroke>() : null;
+		}
+
+		ArrayList<InputStroke> pieces = null;
+		InputStroke piece = null;
+		for (int i = 0; i < size - 1; i++) {
+			if (!intersectCapsule(xs[i], ys[i], xs[i + 1], ys[i + 1], ax, ay, bx, by, radius, span)) {
+				if (piece == null) {
+					piece = new InputStroke(0, size - i);
+					appendPointTo(piece, i);
+				}
+				appendPointTo(piece, i + 1);
+				continue;
+			}
+
+			if (pieces == null) {
+				pieces = new ArrayList<>();
+			}
+
+			if (span[0] > 0) {
+				// the segment enters the capsule; the current piece ends where it does
+				if (piece == null) {
+					piece = new InputStroke(0, 2);
+					appendPointTo(piece, i);
+				}
+				appendInterpolatedPointTo(piece, i, span[0]);
+			}
+
+			addPiece(pieces, piece);
+			piece = null;
+
+			if (span[1] < 1) {
+				// the segment leaves the capsule; a new piece starts where it does
+				piece = new InputStroke(0, size - i + 1);
+				appendInterpolatedPointTo(piece, i, span[1]);
+				appendPointTo(piece, i + 1);
+			}
+		}
+
+		if (pieces != null) {
+			addPiece(pieces, piece);
+		}
+
+		return pieces;
+	}
+
+	private void appendPointTo(InputStroke piece, int i) {
+		piece.append(xs.get(i), ys.get(i), timestamps.get(i), velocities.get(i), frozenVelocities.get(i));
+	}
+
+	/**
+	 * Append the point a fraction t along segment i - i+1 to piece, freezing its interpolated velocity
+	 */
+	private void appendInterpolatedPointTo(InputStroke piece, int i, float t) {
+		final float x = xs.get(i) + t * (xs.get(i + 1) - xs.get(i));
+		final float y = ys.get(i) + t * (ys.get(i + 1) - ys.get(i));
+		final long timestamp = timestamps.get(i) + Math.round(t * (timestamps.get(i + 1) - timestamps.get(i)));
+		final float velocity = velocities.get(i) + t * (velocities.get(i + 1) - velocities.get(i));
+		piece.append(x, y, timestamp, velocity, true);
+	}
+
+	private static void addPiece(ArrayList<InputStroke> pieces, @Nullable InputStroke piece) {
+		if (piece != null && piece.size() >= 2) {
+			piece.invalidate();
+			pieces.add(piece);
+		}
+	}
+
+	/**
+	 * Find the part of segment p0-p1 lying within a capsule. The capsule is the union of the circles at its ends and
+	 * the rectangle between them; since it's convex, the segment's intersection with it runs from the earliest entry
+	 * into any of the three to the latest exit.
+	 *
+	 * @param span receives the fractions along p0-p1, in [0,1], where the segment enters and leaves the capsule
+	 * @return true if the segment touches the capsule
+	 */
+	private static boolean intersectCapsule(float p0x, float p0y, float p1x, float p1y, float ax, float ay, float bx, float by, float radius, float span[]) {
+		final float dx = p1x - p0x;
+		final float dy = p1y - p0y;
+		final float abX = bx - ax;
+		final float abY = by - ay;
+		final float abLength = (float) Math.sqrt(abX * abX + abY * abY);
+
+		// the rectangle is the overlap of a slab along ab, between a and b, and a slab across it, within radius of ab
+		span[0] = -Float.MAX_VALUE;
+		span[1] = Float.MAX_VALUE;
+		boolean inRectangle = false;
+		if (abLength > 0) {
+			final float ux = abX / abLength;
+			final float uy = abY / abLength;
+			final float along = (p0x - ax) * ux + (p0y - ay) * uy;
+			final float across = (p0y - ay) * ux - (p0x - ax) * uy;
+			inRectangle = clipToSlab(along, dx * ux + dy * uy, 0, abLength, span)
+					&& clipToSlab(across, dy * ux - dx * uy, -radius, radius, span);
+		}
+
+		if (!inRectangle) {
+			span[0] = Float.MAX_VALUE;
+			span[1] = -Float.MAX_VALUE;
+		}
+
+		unionCircleIntersection(p0x - ax, p0y - ay, dx, dy, radius, span);
+		unionCircleIntersection(p0x - bx, p0y - by, dx, dy, radius, span);
+
+		span[0] = Math.max(span[0], 0);
+		span[1] = Math.min(span[1], 1);
+		return span[0] <= span[1];
+	}
+
+	/**
+	 * Narrow span to the fractions along a line where a coordinate, v + s * dv, lies in [min,max]
+	 *
+	 * @return true if span is not empty
+	 */
+	private static boolean clipToSlab(float v, float dv, float min, float max, float span[]) {
+		if (dv == 0) {
+			return v >= min && v <= max && span[0] <= span[1];
+		}
+
+		final float s0 = (min - v) / dv;
+		final float s1 = (max - v) / dv;
+		span[0] = Math.max(span[0], Math.min(s0, s1));
+		span[1] = Math.min(span[1], Math.max(s0, s1));
+		return span[0] <= span[1];
+	}
+
+	/**
+	 * Widen span to include the fractions along the line p(s) = f + s * d lying within radius of the origin
+	 */
+	private static void unionCircleIntersection(float fx, float fy, float dx, float dy, float radius, float span[]) {
+		final float a = dx * dx + dy * dy;
+		final float b = 2 * (fx * dx + fy * dy);
+		final float c = fx * fx + fy * fy - radius * radius;
+		if (a == 0) {
+			// the segment is a point
+			if (c <= 0) {
+				span[0] = -Float.MAX_VALUE;
+				span[1] = Float.MAX_VALUE;
+			}
+			return;
+		}
+
+		final float discriminant = b * b - 4 * a * c;
+		if (discriminant < 0) {
+			return;
+		}
+
+		final float root = (float) Math.sqrt(discriminant);
+		span[0] = Math.min(span[0], (-b - root) / (2 * a));
+		span[1] = Math.max(span[1], (-b + root) / (2 * a));
+	}
+
+	/**
+	 * Optimizes this InputStroke to use fewer points. Runs in place: a Douglas-Peucker pass over index
+	 * ranges of the existing storage marks the points to keep, and a single compaction pass then
+	 * squeezes out the rest. No intermediate strokes are allocated.
 	 *
 	 * @param threshold minimum linear deviation for a vertex to be included in optimized stroke
 	 * @return number of points removed in optimization pass
 	 */
 	public int optimize(float threshold) {
-		final int initialSize = points.size();
+		final int initialSize = size;
 		if (threshold > 0 && initialSize > 2) {
-			InputStroke optimized = this.optimized(threshold);
-			this.points = optimized.points;
-			this.boundingRect = optimized.boundingRect;
+			markPointsToKeep(threshold);
+			compact();
+			computeBoundingRect();
+			resetStreamingOptimization();
 
-			return initialSize - this.points.size();
+			return initialSize - size;
 		}
 
 		return 0;
@@ -273,170 +826,253 @@ public class InputStroke implements Parcelable, KryoSerializable {
 	 * @return optimized InputStroke with fewer points
 	 */
 	public InputStroke optimized(float threshold) {
-		InputStroke optimized = _optimize(this, threshold, 0);
+		InputStroke optimized = copy();
+		optimized.autoOptimizationThreshold = autoOptimizationThreshold;
+		if (threshold > 0 && size > 2) {
+			optimized.markPointsToKeep(threshold);
+			optimized.compact();
+		}
 		optimized.computeBoundingRect();
+		optimized.releaseOptimizationScratch();
 		return optimized;
 	}
 
-	private static InputStroke _optimize(InputStroke in, float thresholdSquared, int depth) {
+	/**
+	 * Douglas-Peucker simplification over index ranges. Fills keepMask with the indices of points to retain.
+	 * Ranges are processed from an explicit stack rather than by recursion.
+	 * NOTE: The threshold is compared against squared distances, as optimized() always has.
+	 *
+	 * @param thresholdSquared the squared-distance threshold a point must exceed to be kept
+	 */
+	private void markPointsToKeep(float thresholdSquared) {
+		if (keepMask == null) {
+			keepMask = new BitSet(size);
+		} else {
+			keepMask.clear();
+		}
+
+		if (rangeStack == null) {
+			rangeStack = new int[32];
+		}
 
-		if (in.size() <= 2) {
-			return in;
+		if (rangeLine == null) {
+			rangeLine = new LineSegment();
 		}
 
-		//
-		//	Find the vertex farthest from the line defined by the start and and of the path
-		//
+		final float xs[] = this.xs.getBackingArray();
+		final float ys[] = this.ys.getBackingArray();
+		final LineSegment line = rangeLine;
 
-		float maxDistSquared = 0;
-		int maxDistSquaredIndex = 0;
-		final int size = in.size();
-		final Point first = in.get(0);
-		final Point last = in.get(size - 1);
-		final LineSegment line = new LineSegment(first.position, last.position);
+		keepMask.set(0);
+		keepMask.set(size - 1);
 
-		for (int i = 1; i < size - 1; i++) {
-			float dist = line.distanceSquared(in.get(i).position, true);
-			if (dist > maxDistSquared) {
-				maxDistSquared = dist;
-				maxDistSquaredIndex = i;
+		int stackSize = 0;
+		rangeStack[stackSize++] = 0;
+		rangeStack[stackSize++] = size - 1;
+
+		while (stackSize > 0) {
+			final int last = rangeStack[--stackSize];
+			final int first = rangeStack[--stackSize];
+
+			if (last - first < 2) {
+				continue;
 			}
-		}
 
-		//
-		//	If the farthest vertex is greater than our thresholdSquared, we need to
-		//	partition and optimize left and right separately
-		//
+			//
+			//	Find the vertex farthest from the line defined by the start and and of the range
+			//
+
+			float maxDistSquared = 0;
+			int maxDistSquaredIndex = 0;
+			line.set(xs[first], ys[first], xs[last], ys[last]);
 
-		if (maxDistSquared > thresholdSquared) {
+			for (int i = first + 1; i < last; i++) {
+				float dist = line.distanceSquared(xs[i], ys[i], true);
+				if (dist > maxDistSquared) {
+					maxDistSquared = dist;
+					maxDistSquaredIndex = i;
+				}
+			}
 
 			//
-			//	Partition 'in' into left and right sub vectors, optimize them and join
+			//	If the farthest vertex is greater than our threshold, keep it, and
+			//	process the left and right subranges separately. Otherwise, the range is
+			//	straight enough that we don't need to keep the middle points
 			//
 
-			InputStroke left = _slice(in, 0, maxDistSquaredIndex + 1);
-			InputStroke right = _slice(in, maxDistSquaredIndex, size);
-			InputStroke leftSimplified = _optimize(left, thresholdSquared, depth + 1);
-			InputStroke rightSimplified = _optimize(right, thresholdSquared, depth + 1);
+			if (maxDistSquared > thresholdSquared) {
+				keepMask.set(maxDistSquaredIndex);
 
-			InputStroke joined = new InputStroke();
-			joined.points.ensureCapacity(leftSimplified.size() + rightSimplified.size() - 1);
+				if (stackSize + 4 > rangeStack.length) {
+					rangeStack = Arrays.copyOf(rangeStack, rangeStack.length * 2);
+				}
 
-			for (int i = 0; i < leftSimplified.size() - 1; i++) {
-				joined.points.add(leftSimplified.points.get(i));
+				rangeStack[stackSize++] = maxDistSquaredIndex;
+				rangeStack[stackSize++] = last;
+				rangeStack[stackSize++] = first;
+				rangeStack[stackSize++] = maxDistSquaredIndex;
 			}
+		}
+	}
 
-			// skip first point of right since it's same as last of left
-			for (int i = 0; i < rightSimplified.size(); i++) {
-				joined.points.add(rightSimplified.points.get(i));
+	/**
+	 * Move the points flagged in keepMask to the front of storage, preserving order, and truncate.
+	 * NOTE: Does not update bounds, you must call computeBoundingRect if you need the bounds updated.
+	 */
+	private void compact() {
+		final float xs[] = this.xs.getBackingArray();
+		final float ys[] = this.ys.getBackingArray();
+		final float velocities[] = this.velocities.getBackingArray();
+		final long timestamps[] = this.timestamps.getBackingArray();
+		int write = 0;
+		for (int read = keepMask.nextSetBit(0); read >= 0 && read < size; read = keepMask.nextSetBit(read + 1)) {
+			if (read != write) {
+				xs[write] = xs[read];
+				ys[write] = ys[read];
+				velocities[write] = velocities[read];
+				timestamps[write] = timestamps[read];
+				frozenVelocities.set(write, frozenVelocities.get(read));
+				markModified(write);
 			}
+			write++;
+		}
 
-			return joined;
-		} else {
-
-			//
-			//  The line's straight enough that we don't need to keep the middle points
-			//
+		frozenVelocities.clear(write, Math.max(size, write));
+		markModified(write);
+		truncate(write);
+	}
 
-			InputStroke optimized = new InputStroke();
-			optimized.points.ensureCapacity(2);
-			optimized.points.add(first);
-			optimized.points.add(last);
+	/**
+	 * Drop the work stack, keep-mask and streaming window used by optimization. They're reallocated on demand.
+	 */
+	private void releaseOptimizationScratch() {
+		keepMask = null;
+		rangeStack = null;
+		rangeLine = null;
+		streamingWindowXs = null;
+		streamingWindowYs = null;
+	}
 
-			return optimized;
+	private void markModified(int i) {
+		if (i < firstModifiedIndex) {
+			firstModifiedIndex = i;
 		}
 	}
 
+	private void allocate(int capacity) {
+		xs = new FloatBuffer(capacity);
+		ys = new FloatBuffer(capacity);
+		velocities = new FloatBuffer(capacity);
+		timestamps = new LongBuffer(capacity);
+		size = 0;
+	}
+
 	/**
-	 * Cut out a slice of an InputStroke starting at index start, up to but not including element at end index
-	 *
-	 * @param stroke the stroke to slice
-	 * @param start  index of first element to copy
-	 * @param end    end of slice, not included in output
-	 * @return sub slice of this InputStroke
-	 * NOTE: Does not update bounds of slice, you must call computeBoundingRect if you need the bounds updated.
+	 * Shrink every column to newSize points, keeping their storage
 	 */
-	private static InputStroke _slice(InputStroke stroke, int start, int end) {
-		InputStroke s = new InputStroke();
-		s.points.ensureCapacity(end - start);
+	private void truncate(int newSize) {
+		xs.truncate(newSize);
+		ys.truncate(newSize);
+		velocities.truncate(newSize);
+		timestamps.truncate(newSize);
+		size = newSize;
+	}
 
-		for (int i = start; i < end; i++) {
-			s.points.add(stroke.points.get(i));
+	/**
+	 * Append the positions, velocities and timestamps of count points of src, starting at start. Frozen flags aren't copied.
+	 */
+	private void appendColumns(InputStroke src, int start, int count) {
+		System.arraycopy(src.xs.getBackingArray(), start, xs.extend(count), size, count);
+		System.arraycopy(src.ys.getBackingArray(), start, ys.extend(count), size, count);
+		System.arraycopy(src.velocities.getBackingArray(), start, velocities.extend(count), size, count);
+		System.arraycopy(src.timestamps.getBackingArray(), start, timestamps.extend(count), size, count);
+		markModified(size);
+		size += count;
+	}
+
+	private int resolveIndex(int i) {
+		if (i < 0) {
+			i = size + i;
+		}
+
+		if (i < 0 || i >= size) {
+			throw new ArrayIndexOutOfBoundsException(i);
 		}
 
-		return s;
+		return i;
 	}
 
 	/**
 	 * Compute and update the stored velocity of the point at index i
 	 *
-	 * @param i index of the point whose velocity needs to be recalculated
+	 * @param i    index of the point whose velocity needs to be recalculated
+	 * @param size number of points to consider as being in the stroke
 	 */
-	private void updateVelocityOfPoint(int i) {
-		Point p = get(i);
-		if (!p.freezeVelocity) {
+	private void updateVelocityOfPoint(int i, int size) {
+		if (!frozenVelocities.get(i)) {
 			float sum = 0;
 			for (int j = i - POINT_VELOCITY_SMOOTHING_KERNEL_BACKTRACK, k = 0, end = (i + POINT_VELOCITY_SMOOTHING_KERNEL_BACKTRACK + 1); j < end; j++, k++) {
-				sum += POINT_VELOCITY_SMOOTHING_KERNEL[k] * computeVelocityOfPoint(j);
+				sum += POINT_VELOCITY_SMOOTHING_KERNEL[k] * computeVelocityOfPoint(j, size);
 			}
 
-			p.velocity = sum;
+			velocities.set(i, sum);
 		}
 	}
 
 	/**
 	 * Get the velocity of the point at `i as the average of the velocity of the preceeding and following line segments
 	 *
-	 * @param i the index of the point to query velocity
+	 * @param i    the index of the point to query velocity
+	 * @param size number of points to consider as being in the stroke
 	 * @return velocity in Dp-per-second
 	 */
-	private float computeVelocityOfPoint(int i) {
+	private float computeVelocityOfPoint(int i, int size) {
 		// velocity is computed as average of velocity draiwng preceding and
 		// following segments joined by the point in question.
 		// first and last points are assume to have zero velocity for preceding and following
 		// segments, respectively.
 
-		int size = points.size();
 		if (size < 3) {
 			return 0;
 		}
 
+		final long timestamps[] = this.timestamps.getBackingArray();
 		if (i < 0) {
 			return 0;
 		} else if (i == 0) {
-			final Point a = points.get(i);
-			final Point b = points.get(i + 1);
-			final float length = PointFUtil.distance(a.position, b.position);
-			final float seconds = (b.timestamp - a.timestamp) / 1000f;
+			final float length = distance(i, i + 1);
+			final float seconds = (timestamps[i + 1] - timestamps[i]) / 1000f;
 			return (length / seconds) * 0.5f;
 		} else if (i < size - 2) {
-			final Point a = points.get(i - 1);
-			final Point b = points.get(i);
-			final Point c = points.get(i + 1);
-
 			// get velocity of the preceding segment
-			final float abLength = PointFUtil.distance(a.position, b.position);
-			final float abSeconds = (b.timestamp - a.timestamp) / 1000f;
+			final float abLength = distance(i - 1, i);
+			final float abSeconds = (timestamps[i] - timestamps[i - 1]) / 1000f;
 			final float abVel = abLength / abSeconds;
 
 			// get velocity of the following segment
-			final float cbLength = PointFUtil.distance(b.position, c.position);
-			final float cbSeconds = (c.timestamp - b.timestamp) / 1000f;
+			final float cbLength = distance(i, i + 1);
+			final float cbSeconds = (timestamps[i + 1] - timestamps[i]) / 1000f;
 			final float cbVel = cbLength / cbSeconds;
 
 			return (abVel + cbVel) * 0.5f;
 
-		} else if (i == points.size() - 1) {
-			final Point a = points.get(i - 1);
-			final Point b = points.get(i);
-			final float length = PointFUtil.distance(a.position, b.position);
-			final float seconds = (b.timestamp - a.timestamp) / 1000f;
+		} else if (i == size - 1) {
+			final float length = distance(i - 1, i);
+			final float seconds = (timestamps[i] - timestamps[i - 1]) / 1000f;
 			return (length / seconds) * 0.5f;
 		} else {
 			return 0;
 		}
 	}
 
+	private float distance(int a, int b) {
+		final float xs[] = this.xs.getBackingArray();
+		final float ys[] = this.ys.getBackingArray();
+		final float dx = xs[b] - xs[a];
+		final float dy = ys[b] - ys[a];
+		return (float) Math.sqrt((dx * dx) + (dy * dy));
+	}
+
 	// Parcelable
 
 	@Override
@@ -446,10 +1082,16 @@ public class InputStroke implements Parcelable, KryoSerializable {
 
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeInt(size());
-		for (Point point : points) {
-			dest.writeParcelable(point, 0);
+		dest.writeInt(size);
+		dest.writeFloatArray(xs.getBuffer());
+		dest.writeFloatArray(ys.getBuffer());
+		dest.writeFloatArray(velocities.getBuffer());
+		dest.writeLongArray(timestamps.getBuffer());
+		boolean frozen[] = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			frozen[i] = frozenVelocities.get(i);
 		}
+		dest.writeBooleanArray(frozen);
 	}
 
 	public static final Parcelable.Creator<InputStroke> CREATOR = new Parcelable.Creator<InputStroke>() {
@@ -463,48 +1105,75 @@ public class InputStroke implements Parcelable, KryoSerializable {
 	};
 
 	private InputStroke(Parcel in) {
-		points = new ArrayList<>();
-		int count = in.readInt();
-		for (int i = 0; i < count; i++) {
-			Point p = in.readParcelable(null);
-			points.add(p);
+		size = in.readInt();
+		xs = FloatBuffer.wrap(in.createFloatArray());
+		ys = FloatBuffer.wrap(in.createFloatArray());
+		velocities = FloatBuffer.wrap(in.createFloatArray());
+		timestamps = LongBuffer.wrap(in.createLongArray());
+		boolean frozen[] = in.createBooleanArray();
+		for (int i = 0; i < size; i++) {
+			frozenVelocities.set(i, frozen[i]);
 		}
 
 		invalidate();
 	}
 
 	// KryoSerializable
-	static final int SERIALIZATION_VERSION = 0;
+	static final int SERIALIZATION_VERSION = 1;
 
 	@Override
 	public void write(Kryo kryo, Output output) {
 		output.writeInt(SERIALIZATION_VERSION);
-		output.writeInt(size());
-		for (Point point : points) {
-			kryo.writeObject(output, point);
+		output.writeInt(size);
+		output.writeFloats(xs.getBuffer());
+		output.writeFloats(ys.getBuffer());
+		output.writeFloats(velocities.getBuffer());
+		output.writeLongs(timestamps.getBuffer());
+		for (int i = 0; i < size; i++) {
+			output.writeBoolean(frozenVelocities.get(i));
 		}
 	}
 
 	@Override
 	public void read(Kryo kryo, Input input) {
 		int serializationVersion = input.readInt();
+		int count;
 		switch (serializationVersion) {
 			case 0:
-				points = new ArrayList<>();
-				int count = input.readInt();
+				count = input.readInt();
+				allocate(Math.max(count, 2));
+				frozenVelocities = new BitSet(count);
+				for (int i = 0; i < count; i++) {
+					Point p = kryo.readObject(input, Point.class);
+					append(p.position.x, p.position.y, p.timestamp, p.velocity, p.freezeVelocity);
+				}
+				break;
+			case 1:
+				count = input.readInt();
+				xs = FloatBuffer.wrap(input.readFloats(count));
+				ys = FloatBuffer.wrap(input.readFloats(count));
+				velocities = FloatBuffer.wrap(input.readFloats(count));
+				timestamps = LongBuffer.wrap(input.readLongs(count));
+				frozenVelocities = new BitSet(count);
 				for (int i = 0; i < count; i++) {
-					points.add(kryo.readObject(input, Point.class));
+					frozenVelocities.set(i, input.readBoolean());
 				}
+				size = count;
 				break;
 			default:
 				throw new IllegalArgumentException("Unsupported " + this.getClass().getName() + " serialization version: " + serializationVersion);
 		}
+
+		firstModifiedIndex = 0;
+		computeBoundingRect();
 	}
 
 	/**
 	 * Represents user input. As user drags across screen, each location is recorded along with its timestamp.
 	 * The timestamps can be compared across an array of Point to determine the velocity of the touch,
 	 * which will be used to determine line thickness.
+	 * NOTE: InputStroke no longer stores Point instances; this is a value snapshot, and is retained
+	 * for reading version 0 serialized strokes.
 	 */
 	public static class Point implements Parcelable, KryoSerializable {
 		public PointF position = new PointF();
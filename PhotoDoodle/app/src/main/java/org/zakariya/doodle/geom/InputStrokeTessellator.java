@@ -4,21 +4,110 @@ import android.graphics.Path;
 import android.graphics.PointF;
 
 import org.zakariya.doodle.util.FloatBuffer;
+import org.zakariya.doodle.util.IntBuffer;
 
-import java.util.ArrayList;
+import java.util.Locale;
 
 /**
  * Created by shamyl on 10/18/15.
  */
 public class InputStrokeTessellator {
 
+	/**
+	 * Default max deviation, in rendered units (generally device pixels), of the flattened outline from the true curves
+	 */
+	public static final float DEFAULT_SUBDIVISION_TOLERANCE = 0.25f;
+
+	/**
+	 * Tally of the curves flattened and vertices emitted by tessellation, for tuning subdivision tolerance
+	 */
+	public static class Report {
+		private int curveCount;
+		private int vertexCount;
+		private float maxError;
+
+		public int getCurveCount() {
+			return curveCount;
+		}
+
+		public int getVertexCount() {
+			return vertexCount;
+		}
+
+		/**
+		 * @return upper bound of the deviation, in rendered units, of any flattened curve from the true curve
+		 */
+		public float getMaxError() {
+			return maxError;
+		}
+
+		public void reset() {
+			curveCount = 0;
+			vertexCount = 0;
+			maxError = 0;
+		}
+
+		public void add(Report other) {
+			curveCount += other.curveCount;
+			vertexCount += other.vertexCount;
+			maxError = Math.max(maxError, other.maxError);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%d curves, %d vertices (%.2f per curve), max error %.3f",
+					curveCount, vertexCount, curveCount > 0 ? (float) vertexCount / curveCount : 0f, maxError);
+		}
+	}
+
 	private InputStroke inputStroke;
 	private float minWidth, maxWidth, maxVelDPps;
+	private float subdivisionTolerance = DEFAULT_SUBDIVISION_TOLERANCE;
+	private float subdivisionScale = 1;
+	private Report report = new Report();
 	private Path path;
-	private FloatBuffer leftCoordinates = new FloatBuffer();
-	private FloatBuffer rightCoordinates = new FloatBuffer();
+	private Outline outline = new Outline();
+	private FloatBuffer leftCoordinates = FloatBuffer.obtain();
+	private FloatBuffer rightCoordinates = FloatBuffer.obtain();
 	private CubicBezierInterpolator cbi = new CubicBezierInterpolator();
 
+	// per-point geometry, computed once per tessellation and extended incrementally as points are appended.
+	// segment i runs from point i to point i+1
+	private InputStroke preparedInputStroke;
+	private int preparedCount;
+	private FloatBuffer segmentDirXs = new FloatBuffer();
+	private FloatBuffer segmentDirYs = new FloatBuffer();
+	private FloatBuffer tangentXs = new FloatBuffer();
+	private FloatBuffer tangentYs = new FloatBuffer();
+	private FloatBuffer radii = new FloatBuffer();
+
+	// where the most recent tessellation ended, and the state a continuation picks up from
+	private boolean hasLast, hasContinuation;
+	private float lastLeftX, lastLeftY, lastRightX, lastRightY;
+	private float lastTangentX, lastTangentY, lastSegmentDirX, lastSegmentDirY;
+	private float continuationLeftX, continuationLeftY, continuationRightX, continuationRightY;
+	private float continuationTangentX, continuationTangentY, continuationSegmentDirX, continuationSegmentDirY;
+
+	// state of the outline maintained by tessellateIncrementally(). The coordinates emitted for segment i start
+	// at left/rightSegmentOffsets[i] in the coordinate buffers
+	private Path incrementalPath;
+	private InputStroke incrementalInputStroke;
+	private boolean incrementalOutlineValid, incrementalIsContinuation;
+	private int incrementalSegmentCount;
+	private IntBuffer leftSegmentOffsets = new IntBuffer();
+	private IntBuffer rightSegmentOffsets = new IntBuffer();
+
+	// scratch storage reused across tessellate() calls so the per-segment loop doesn't allocate
+	private final PointF aLeftAttachPoint = new PointF();
+	private final PointF aRightAttachPoint = new PointF();
+	private final PointF bLeftAttachPoint = new PointF();
+	private final PointF bRightAttachPoint = new PointF();
+	private final PointF aLeftControlPoint = new PointF();
+	private final PointF aRightControlPoint = new PointF();
+	private final PointF bLeftControlPoint = new PointF();
+	private final PointF bRightControlPoint = new PointF();
+	private final PointF dir = new PointF();
+
 	public InputStrokeTessellator() {
 	}
 
@@ -35,6 +124,7 @@ public class InputStrokeTessellator {
 
 	public void setInputStroke(InputStroke inputStroke) {
 		this.inputStroke = inputStroke;
+		invalidateGeometry();
 	}
 
 	public float getMinWidth() {
@@ -43,6 +133,7 @@ public class InputStrokeTessellator {
 
 	public void setMinWidth(float minWidth) {
 		this.minWidth = minWidth;
+		invalidateGeometry();
 	}
 
 	public float getMaxWidth() {
@@ -51,6 +142,7 @@ public class InputStrokeTessellator {
 
 	public void setMaxWidth(float maxWidth) {
 		this.maxWidth = maxWidth;
+		invalidateGeometry();
 	}
 
 	public float getMaxVelDPps() {
@@ -59,171 +151,193 @@ public class InputStrokeTessellator {
 
 	public void setMaxVelDPps(float maxVelDPps) {
 		this.maxVelDPps = maxVelDPps;
+		invalidateGeometry();
+	}
+
+	public float getSubdivisionTolerance() {
+		return subdivisionTolerance;
+	}
+
+	public float getSubdivisionScale() {
+		return subdivisionScale;
+	}
+
+	/**
+	 * Set how finely the outline's curves are flattened. Curves are subdivided just enough to stay within `tolerance
+	 * of the true curve when rendered at `scale, so strokes rendered small (e.g., thumbnails, zoomed out views) emit
+	 * fewer vertices and strokes rendered large stay smooth.
+	 *
+	 * @param tolerance max deviation of the flattened curves, in rendered units (generally device pixels)
+	 * @param scale     the scale from InputStroke units to rendered units, e.g., canvas to screen scale
+	 */
+	public void setSubdivisionTolerance(float tolerance, float scale) {
+		subdivisionTolerance = tolerance;
+		subdivisionScale = scale;
+		invalidateIncrementalOutline();
+	}
+
+	/**
+	 * @return tally of the work done by tessellation since resetReport() was called
+	 */
+	public Report getReport() {
+		return report;
 	}
 
+	public void resetReport() {
+		report.reset();
+	}
+
+	/**
+	 * @return Path produced by the most recent Path-returning tessellate call
+	 */
 	public Path getPath() {
 		return path;
 	}
 
-	private Path tessellate(int startIndex, int endIndex, boolean startCap, boolean endCap) {
+	/**
+	 * @return Outline produced by the most recent Path-returning tessellate call, e.g., for its bounds. It's reused by subsequent calls.
+	 */
+	public Outline getOutline() {
+		return outline;
+	}
+
+	/**
+	 * Return the coordinate buffers to the FloatBuffer pool, so the next tessellator can reuse their storage.
+	 * Call when done with a short-lived tessellator; it must not be used to tessellate afterwards.
+	 */
+	public void release() {
+		leftCoordinates.recycle();
+		rightCoordinates.recycle();
+		leftCoordinates = null;
+		rightCoordinates = null;
+	}
+
+	/**
+	 * Tessellate InputStroke from startIndex to endIndex
+	 *
+	 * @param startIndex     index of point to start tessellation at
+	 * @param endIndex       index of point to end tessellation at (inclusive)
+	 * @param isContinuation if true, and beginContinuation() has been called, the outline picks up where the tessellation
+	 *                       preceding beginContinuation() ended: it starts at that outline's final left/right coordinates,
+	 *                       and uses its final tangent and segment direction at startIndex
+	 * @param startCap       if true, draw a round cap at startIndex. Generally false for continuations.
+	 * @param endCap         if true, draw a round cap at endIndex
+	 * @return Path representing InputStroke tessellated from startIndex to endIndex
+	 */
+	public Path tessellate(int startIndex, int endIndex, boolean isContinuation, boolean startCap, boolean endCap) {
+		tessellate(startIndex, endIndex, isContinuation, startCap, endCap, outline);
+
 		path = new Path();
 		path.setFillType(Path.FillType.WINDING);
+		return outline.toPath(path);
+	}
 
-		if (inputStroke.size() < 2) {
-			return path;
-		}
+	/**
+	 * Tessellate InputStroke from startIndex to endIndex into an Outline. See tessellate(int, int, boolean, boolean, boolean)
+	 *
+	 * @param into the outline to write to. It's reset first.
+	 * @return into
+	 */
+	public Outline tessellate(int startIndex, int endIndex, boolean isContinuation, boolean startCap, boolean endCap, Outline into) {
+		into.reset();
 
-		ArrayList<InputStroke.Point> points = inputStroke.getPoints();
+		// this overwrites the coordinate buffers, so the incremental outline must be rebuilt from scratch
+		invalidateIncrementalOutline();
 
-		if (startCap) {
-			final InputStroke.Point firstPoint = points.get(startIndex);
-			final float radius = getRadiusForInputStrokePoint(firstPoint);
-			path.addCircle(firstPoint.position.x, firstPoint.position.y, radius, Path.Direction.CCW);
-		}
+		isContinuation = isContinuation && hasContinuation;
+		clearCoordinateBuffers(isContinuation);
 
-		PointF aLeftAttachPoint = new PointF();
-		PointF aRightAttachPoint = new PointF();
-		PointF bLeftAttachPoint = new PointF();
-		PointF bRightAttachPoint = new PointF();
-		PointF aLeftControlPoint = new PointF();
-		PointF aRightControlPoint = new PointF();
-		PointF bLeftControlPoint = new PointF();
-		PointF bRightControlPoint = new PointF();
-		PointF previousSegmentDir = null;
-		PointF currentSegmentDir = inputStroke.getSegmentDirection(startIndex);
-		PointF nextSegmentDir = null;
-		PointF bp = new PointF();
+		if (inputStroke.size() < 2 || endIndex <= startIndex) {
+			return into;
+		}
 
+		prepareGeometry();
 		for (int i = startIndex; i < endIndex; i++) {
-			final InputStroke.Point a = points.get(i);
-			final InputStroke.Point b = points.get(i + 1);
-			final PointF dir = PointFUtil.dir(a.position, b.position).first;
-			final float aRadius = getRadiusForInputStrokePoint(a);
-			final float bRadius = getRadiusForInputStrokePoint(b);
-
-			// aLeftAttachPoint and aRightAttachPoint are the start points of the two bezier curves
-			PointF aLeftAttachDir = PointFUtil.scale(PointFUtil.rotateCCW(dir), aRadius);
-			aLeftAttachPoint.x = a.position.x + aLeftAttachDir.x;
-			aLeftAttachPoint.y = a.position.y + aLeftAttachDir.y;
-			aRightAttachPoint.x = a.position.x - aLeftAttachDir.x;
-			aRightAttachPoint.y = a.position.y - aLeftAttachDir.y;
-
-			// bLeftAttachPoint and bRightAttachPoint are the end points of the two bezier curves
-			PointF bLeftAttachDir = PointFUtil.scale(PointFUtil.rotateCCW(dir), bRadius);
-			bLeftAttachPoint.x = b.position.x + bLeftAttachDir.x;
-			bLeftAttachPoint.y = b.position.y + bLeftAttachDir.y;
-			bRightAttachPoint.x = b.position.x - bLeftAttachDir.x;
-			bRightAttachPoint.y = b.position.y - bLeftAttachDir.y;
-
-			// now compute the bezier control points
-			float leftControlPointLength = PointFUtil.distance(aLeftAttachPoint, bLeftAttachPoint) / 4;
-			float rightControlPointLength = PointFUtil.distance(aRightAttachPoint, bRightAttachPoint) / 4;
-			float aLeftControlPointLength = leftControlPointLength;
-			float bLeftControlPointLength = leftControlPointLength;
-			float aRightControlPointLength = rightControlPointLength;
-			float bRightControlPointLength = rightControlPointLength;
-
-			// scale down start bezier control points by acuteness of angle between current and previous segments
-			if (previousSegmentDir != null) {
-				float dot = PointFUtil.dot(previousSegmentDir, currentSegmentDir);
-				float acuteness = -1 * Math.min(dot, 0); // clamp dot from [-1,0] and invert so we have an acuteness from 0 to 1
-				float controlPointScale = 1 - acuteness;
-				aLeftControlPointLength *= controlPointScale;
-				aRightControlPointLength *= controlPointScale;
-			}
-
-			final PointF aTangent = inputStroke.getTangent(i);
-			final PointF bTangent = inputStroke.getTangent(i + 1);
-			aLeftControlPoint.x = aLeftAttachPoint.x + aTangent.x * aLeftControlPointLength;
-			aLeftControlPoint.y = aLeftAttachPoint.y + aTangent.y * aLeftControlPointLength;
-			aRightControlPoint.x = aRightAttachPoint.x + aTangent.x * aRightControlPointLength;
-			aRightControlPoint.y = aRightAttachPoint.y + aTangent.y * aRightControlPointLength;
-
-			nextSegmentDir = inputStroke.getSegmentDirection(i + 1);
-			// scale down end bezier control points by acuteness of angle between current and next segments
-			if (nextSegmentDir != null) {
-				float dot = PointFUtil.dot(nextSegmentDir, currentSegmentDir);
-				float acuteness = -1 * Math.min(dot, 0); // clamp dot from [-1,0] and invert so we have an acuteness from 0 to 1
-				float controlPointScale = 1 - acuteness;
-				bLeftControlPointLength *= controlPointScale;
-				bRightControlPointLength *= controlPointScale;
-			}
-
-			bLeftControlPoint.x = bLeftAttachPoint.x + bTangent.x * -bLeftControlPointLength;
-			bLeftControlPoint.y = bLeftAttachPoint.y + bTangent.y * -bLeftControlPointLength;
-			bRightControlPoint.x = bRightAttachPoint.x + bTangent.x * -bRightControlPointLength;
-			bRightControlPoint.y = bRightAttachPoint.y + bTangent.y * -bRightControlPointLength;
-
-			// perform bezier interpolation of left side from aLeftAttachPoint up to but not including bLeftAttachPoint since next step will add bLeftAttachPoint
-			cbi.set(aLeftAttachPoint, aLeftControlPoint, bLeftControlPoint, bLeftAttachPoint);
-			int subdivisions = cbi.getRecommendedSubdivisions(1);
-			leftCoordinates.add(aLeftAttachPoint.x);
-			leftCoordinates.add(aLeftAttachPoint.y);
-			if (subdivisions > 1) {
-				// time interpolator
-				final float dt = 1f / subdivisions;
-				float t = dt;
-				for (int j = 0; j < subdivisions; j++, t += dt) {
-					cbi.getBezierPoint(t, bp);
-					leftCoordinates.add(bp.x);
-					leftCoordinates.add(bp.y);
-				}
-			}
+			tessellateSegment(i, startIndex, isContinuation);
+		}
 
-			// perform bezier interpolation of right side from aRightAttachPoint up to but not including bRightAttachPoint since next step will add bRightAttachPoint
-			cbi.set(aRightAttachPoint, aRightControlPoint, bRightControlPoint, bRightAttachPoint);
-			subdivisions = cbi.getRecommendedSubdivisions(1);
-			rightCoordinates.add(aRightAttachPoint.x);
-			rightCoordinates.add(aRightAttachPoint.y);
-			if (subdivisions > 1) {
-				// time interpolator
-				final float dt = 1f / subdivisions;
-				float t = dt;
-				for (int j = 0; j < subdivisions; j++, t += dt) {
-					cbi.getBezierPoint(t, bp);
-					rightCoordinates.add(bp.x);
-					rightCoordinates.add(bp.y);
-				}
-			}
+		recordLast(endIndex);
+		stitchOutline(into, startIndex, endIndex, startCap, endCap);
+		return into;
+	}
 
-			// update segment directions for angle acuteness testing
-			previousSegmentDir = currentSegmentDir;
-			currentSegmentDir = nextSegmentDir;
-		}
+	/**
+	 * Tessellate the entire InputStroke, reusing the outline computed by the previous call for all segments not
+	 * affected by points modified since then (see InputStroke.getFirstModifiedIndex). When the stroke is only
+	 * appended to, as while drawing, just the last few segments - whose tangents, acuteness and velocities change
+	 * with the new point - are recomputed, so the cost per appended point doesn't grow with the stroke's length.
+	 * NOTE: The returned Path is reused by subsequent calls. Calling any other tessellate method, changing the
+	 * InputStroke, widths or max velocity, or calling beginContinuation() forces the next call to start over.
+	 *
+	 * @param isContinuation if true, and beginContinuation() has been called, continue from the previous tessellation. See tessellate(int, int, boolean, boolean, boolean)
+	 * @param startCap       if true, draw a round cap at the start of the stroke
+	 * @param endCap         if true, draw a round cap at the end of the stroke
+	 * @return Path representing entire InputStroke
+	 */
+	public Path tessellateIncrementally(boolean isContinuation, boolean startCap, boolean endCap) {
+		tessellateIncrementally(isContinuation, startCap, endCap, outline);
 
-		// now that we've populated the left and right coord buffers, stitch a path together
-		int coordStartIndex = 2 * startIndex;
-		if (coordStartIndex >= leftCoordinates.size()) {
-			return path;
+		if (incrementalPath == null) {
+			incrementalPath = new Path();
+			incrementalPath.setFillType(Path.FillType.WINDING);
+		} else {
+			incrementalPath.rewind();
 		}
 
-		float x = leftCoordinates.get(coordStartIndex);
-		float y = leftCoordinates.get(coordStartIndex + 1);
-		path.moveTo(x, y);
+		path = incrementalPath;
+		return outline.toPath(incrementalPath);
+	}
 
-		for (int i = coordStartIndex + 2, N = leftCoordinates.size(); i < N; i += 2) {
-			x = leftCoordinates.get(i);
-			y = leftCoordinates.get(i + 1);
-			path.lineTo(x, y);
+	/**
+	 * Tessellate the entire InputStroke into an Outline, reusing unmodified segments of the previous incremental
+	 * tessellation. See tessellateIncrementally(boolean, boolean, boolean)
+	 *
+	 * @param into the outline to write to. It's reset first.
+	 * @return into
+	 */
+	public Outline tessellateIncrementally(boolean isContinuation, boolean startCap, boolean endCap, Outline into) {
+		into.reset();
+		isContinuation = isContinuation && hasContinuation;
+
+		final int count = inputStroke.size();
+		final int endIndex = count - 1;
+		int firstDirtySegment = 0;
+		if (incrementalOutlineValid && incrementalInputStroke == inputStroke && incrementalIsContinuation == isContinuation && preparedInputStroke == inputStroke) {
+			// segment i depends on points i-1 through i+2, so modifying point m dirties segments m-2 onwards
+			int firstModifiedIndex = Math.min(inputStroke.getFirstModifiedIndex(), preparedCount);
+			firstDirtySegment = Math.max(Math.min(firstModifiedIndex - 2, incrementalSegmentCount), 0);
 		}
 
-		// right coordinates must be iterated backwards from end to start
-		for (int i = rightCoordinates.size() - 2; i >= coordStartIndex; i -= 2) {
-			x = rightCoordinates.get(i);
-			y = rightCoordinates.get(i + 1);
-			path.lineTo(x, y);
+		if (firstDirtySegment == 0) {
+			clearCoordinateBuffers(isContinuation);
+		} else {
+			leftCoordinates.truncate(leftSegmentOffsets.get(firstDirtySegment));
+			rightCoordinates.truncate(rightSegmentOffsets.get(firstDirtySegment));
 		}
 
-		path.close();
+		incrementalInputStroke = inputStroke;
+		incrementalIsContinuation = isContinuation;
+		incrementalOutlineValid = true;
 
-		if (endCap) {
-			final InputStroke.Point endPoint = points.get(endIndex);
-			final float radius = getRadiusForInputStrokePoint(endPoint);
-			path.addCircle(endPoint.position.x, endPoint.position.y, radius, Path.Direction.CCW);
+		if (count < 2) {
+			incrementalSegmentCount = 0;
+			return into;
 		}
 
+		prepareGeometry();
 
-		return path;
+		final int leftSegmentOffsets[] = this.leftSegmentOffsets.resize(count);
+		final int rightSegmentOffsets[] = this.rightSegmentOffsets.resize(count);
+		for (int i = firstDirtySegment; i < endIndex; i++) {
+			leftSegmentOffsets[i] = leftCoordinates.size();
+			rightSegmentOffsets[i] = rightCoordinates.size();
+			tessellateSegment(i, 0, isContinuation);
+		}
+		incrementalSegmentCount = endIndex;
+
+		recordLast(endIndex);
+		stitchOutline(into, 0, endIndex, startCap, endCap);
+		return into;
 	}
 
 	/**
@@ -233,8 +347,7 @@ public class InputStrokeTessellator {
 	 * @return Path representing InputStroke tessellated from startIndex to end
 	 */
 	public Path tessellate(int startIndex, boolean isContinuation, boolean startCap, boolean endCap) {
-		clearCoordinateBuffers(isContinuation);
-		return tessellate(startIndex, inputStroke.size() - 1, startCap, endCap);
+		return tessellate(startIndex, inputStroke.size() - 1, isContinuation, startCap, endCap);
 	}
 
 	/**
@@ -243,36 +356,305 @@ public class InputStrokeTessellator {
 	 * @return Path representing entire InputStroke
 	 */
 	public Path tessellate(boolean isContinuation, boolean startCap, boolean endCap) {
-		clearCoordinateBuffers(isContinuation);
-		return tessellate(0, inputStroke.size() - 1, startCap, endCap);
+		return tessellate(0, inputStroke.size() - 1, isContinuation, startCap, endCap);
+	}
+
+	/**
+	 * Mark the end of the most recent tessellation as the place subsequent continuation tessellations pick up from.
+	 * The end point of that tessellation must be the start point of the continuation. This is generally called
+	 * after tessellating a chunk of a stroke which is now frozen, before moving on to the stroke's next chunk.
+	 */
+	public void beginContinuation() {
+		if (hasLast) {
+			continuationLeftX = lastLeftX;
+			continuationLeftY = lastLeftY;
+			continuationRightX = lastRightX;
+			continuationRightY = lastRightY;
+			continuationTangentX = lastTangentX;
+			continuationTangentY = lastTangentY;
+			continuationSegmentDirX = lastSegmentDirX;
+			continuationSegmentDirY = lastSegmentDirY;
+			hasContinuation = true;
+			invalidateIncrementalOutline();
+		}
+	}
+
+	/**
+	 * Forget any continuation state recorded by beginContinuation()
+	 */
+	public void clearContinuation() {
+		hasContinuation = false;
+		invalidateIncrementalOutline();
+	}
+
+	/**
+	 * Append the left and right outline coordinates for the segment from point i to point i+1 to the coordinate
+	 * buffers, from the segment's start attach points through its end attach points. prepareGeometry() must have been called.
+	 *
+	 * @param i              index of the segment's start point
+	 * @param startIndex     index of the tessellation's first point
+	 * @param isContinuation if true, the tessellation continues from the state recorded by beginContinuation()
+	 */
+	private void tessellateSegment(int i, int startIndex, boolean isContinuation) {
+		final float xs[] = inputStroke.getXs();
+		final float ys[] = inputStroke.getYs();
+		final float segmentDirXs[] = this.segmentDirXs.getBackingArray();
+		final float segmentDirYs[] = this.segmentDirYs.getBackingArray();
+		final float tangentXs[] = this.tangentXs.getBackingArray();
+		final float tangentYs[] = this.tangentYs.getBackingArray();
+		final float radii[] = this.radii.getBackingArray();
+		final int lastSegmentIndex = inputStroke.size() - 2;
+
+		final PointF aLeftAttachPoint = this.aLeftAttachPoint;
+		final PointF aRightAttachPoint = this.aRightAttachPoint;
+		final PointF bLeftAttachPoint = this.bLeftAttachPoint;
+		final PointF bRightAttachPoint = this.bRightAttachPoint;
+		final PointF aLeftControlPoint = this.aLeftControlPoint;
+		final PointF aRightControlPoint = this.aRightControlPoint;
+		final PointF bLeftControlPoint = this.bLeftControlPoint;
+		final PointF bRightControlPoint = this.bRightControlPoint;
+
+
+		final float ax = xs[i];
+		final float ay = ys[i];
+		final float bx = xs[i + 1];
+		final float by = ys[i + 1];
+		final float dirX = segmentDirXs[i];
+		final float dirY = segmentDirYs[i];
+		final float aRadius = radii[i];
+		final float bRadius = radii[i + 1];
+
+		// the left normal of the segment is dir rotated CCW
+		final float normalX = -dirY;
+		final float normalY = dirX;
+
+		// aLeftAttachPoint and aRightAttachPoint are the start points of the two bezier curves
+		final float aLeftAttachDirX = normalX * aRadius;
+		final float aLeftAttachDirY = normalY * aRadius;
+		aLeftAttachPoint.x = ax + aLeftAttachDirX;
+		aLeftAttachPoint.y = ay + aLeftAttachDirY;
+		aRightAttachPoint.x = ax - aLeftAttachDirX;
+		aRightAttachPoint.y = ay - aLeftAttachDirY;
+
+		// bLeftAttachPoint and bRightAttachPoint are the end points of the two bezier curves
+		final float bLeftAttachDirX = normalX * bRadius;
+		final float bLeftAttachDirY = normalY * bRadius;
+		bLeftAttachPoint.x = bx + bLeftAttachDirX;
+		bLeftAttachPoint.y = by + bLeftAttachDirY;
+		bRightAttachPoint.x = bx - bLeftAttachDirX;
+		bRightAttachPoint.y = by - bLeftAttachDirY;
+
+		// now compute the bezier control points
+		float leftControlPointLength = PointFUtil.distance(aLeftAttachPoint, bLeftAttachPoint) / 4;
+		float rightControlPointLength = PointFUtil.distance(aRightAttachPoint, bRightAttachPoint) / 4;
+		float aLeftControlPointLength = leftControlPointLength;
+		float bLeftControlPointLength = leftControlPointLength;
+		float aRightControlPointLength = rightControlPointLength;
+		float bRightControlPointLength = rightControlPointLength;
+
+		// scale down start bezier control points by acuteness of angle between current and previous segments
+		if (i > startIndex || isContinuation) {
+			float dot = i > startIndex
+					? PointFUtil.dot(segmentDirXs[i - 1], segmentDirYs[i - 1], dirX, dirY)
+					: PointFUtil.dot(continuationSegmentDirX, continuationSegmentDirY, dirX, dirY);
+			float acuteness = -1 * Math.min(dot, 0); // clamp dot from [-1,0] and invert so we have an acuteness from 0 to 1
+			float controlPointScale = 1 - acuteness;
+			aLeftControlPointLength *= controlPointScale;
+			aRightControlPointLength *= controlPointScale;
+		}
+
+		final float aTangentX = (i == startIndex && isContinuation) ? continuationTangentX : tangentXs[i];
+		final float aTangentY = (i == startIndex && isContinuation) ? continuationTangentY : tangentYs[i];
+		final float bTangentX = tangentXs[i + 1];
+		final float bTangentY = tangentYs[i + 1];
+		aLeftControlPoint.x = aLeftAttachPoint.x + aTangentX * aLeftControlPointLength;
+		aLeftControlPoint.y = aLeftAttachPoint.y + aTangentY * aLeftControlPointLength;
+		aRightControlPoint.x = aRightAttachPoint.x + aTangentX * aRightControlPointLength;
+		aRightControlPoint.y = aRightAttachPoint.y + aTangentY * aRightControlPointLength;
+
+		// scale down end bezier control points by acuteness of angle between current and next segments
+		if (i + 1 <= lastSegmentIndex) {
+			float dot = PointFUtil.dot(segmentDirXs[i + 1], segmentDirYs[i + 1], dirX, dirY);
+			float acuteness = -1 * Math.min(dot, 0); // clamp dot from [-1,0] and invert so we have an acuteness from 0 to 1
+			float controlPointScale = 1 - acuteness;
+			bLeftControlPointLength *= controlPointScale;
+			bRightControlPointLength *= controlPointScale;
+		}
+
+		bLeftControlPoint.x = bLeftAttachPoint.x + bTangentX * -bLeftControlPointLength;
+		bLeftControlPoint.y = bLeftAttachPoint.y + bTangentY * -bLeftControlPointLength;
+		bRightControlPoint.x = bRightAttachPoint.x + bTangentX * -bRightControlPointLength;
+		bRightControlPoint.y = bRightAttachPoint.y + bTangentY * -bRightControlPointLength;
+
+		// perform bezier interpolation of left side from aLeftAttachPoint through bLeftAttachPoint. A single subdivision
+		// still emits bLeftAttachPoint, so a straight final segment reaches the end of the stroke
+		cbi.set(aLeftAttachPoint, aLeftControlPoint, bLeftControlPoint, bLeftAttachPoint);
+		int subdivisions = cbi.getSubdivisions(subdivisionTolerance, subdivisionScale);
+		leftCoordinates.add(aLeftAttachPoint.x);
+		leftCoordinates.add(aLeftAttachPoint.y);
+		cbi.flatten(subdivisions, leftCoordinates);
+		tallyCurve(subdivisions);
+
+		// perform bezier interpolation of right side from aRightAttachPoint through bRightAttachPoint
+		cbi.set(aRightAttachPoint, aRightControlPoint, bRightControlPoint, bRightAttachPoint);
+		subdivisions = cbi.getSubdivisions(subdivisionTolerance, subdivisionScale);
+		rightCoordinates.add(aRightAttachPoint.x);
+		rightCoordinates.add(aRightAttachPoint.y);
+		cbi.flatten(subdivisions, rightCoordinates);
+		tallyCurve(subdivisions);
+	}
+
+	/**
+	 * Add the curve currently set on cbi, flattened into `subdivisions segments, to the report. A single
+	 * subdivision means the curve was replaced by its chord. The curve emits its start point plus one vertex per subdivision.
+	 */
+	private void tallyCurve(int subdivisions) {
+		final Report report = this.report;
+		report.curveCount++;
+		report.vertexCount += subdivisions + 1;
+		report.maxError = Math.max(report.maxError, cbi.getFlatteningError(subdivisions, subdivisionScale));
+	}
+
+	/**
+	 * Record where the outline in the coordinate buffers ends, in case the next tessellation continues from it
+	 */
+	private void recordLast(int endIndex) {
+		lastLeftX = leftCoordinates.get(-2);
+		lastLeftY = leftCoordinates.get(-1);
+		lastRightX = rightCoordinates.get(-2);
+		lastRightY = rightCoordinates.get(-1);
+		lastTangentX = tangentXs.get(endIndex);
+		lastTangentY = tangentYs.get(endIndex);
+		lastSegmentDirX = segmentDirXs.get(endIndex - 1);
+		lastSegmentDirY = segmentDirYs.get(endIndex - 1);
+		hasLast = true;
+	}
+
+	/**
+	 * Stitch the left and right coordinate buffers together into a closed contour in outline, adding caps as requested
+	 */
+	private void stitchOutline(Outline outline, int startIndex, int endIndex, boolean startCap, boolean endCap) {
+		final float xs[] = inputStroke.getXs();
+		final float ys[] = inputStroke.getYs();
+
+		// right coordinates must be iterated backwards from end to start
+		outline.beginContour();
+		outline.addVertices(leftCoordinates.getBackingArray(), 0, leftCoordinates.size() / 2, false);
+		outline.addVertices(rightCoordinates.getBackingArray(), 0, rightCoordinates.size() / 2, true);
+
+		if (startCap) {
+			outline.addCircle(xs[startIndex], ys[startIndex], radii.get(startIndex));
+		}
+
+		if (endCap) {
+			outline.addCircle(xs[endIndex], ys[endIndex], radii.get(endIndex));
+		}
 	}
 
 	public float getRadiusForInputStrokePoint(InputStroke.Point point) {
-		float velScale = Math.min(point.velocity / maxVelDPps, 1f);
+		return getRadiusForVelocity(point.velocity);
+	}
+
+	public float getRadiusForInputStrokePoint(int i) {
+		return getRadiusForVelocity(inputStroke.getVelocity(i));
+	}
+
+	public float getRadiusForVelocity(float velocity) {
+		float velScale = Math.min(velocity / maxVelDPps, 1f);
 		float minRadius = minWidth * 0.5f;
 		float maxRadius = maxWidth * 0.5f;
 		float deltaRadius = maxRadius - minRadius;
 		return minRadius + (velScale * velScale * deltaRadius);
 	}
 
+	/**
+	 * Fill segment direction, tangent and radius arrays for the current InputStroke. If the stroke is the same
+	 * one prepared last time, only geometry affected by points modified since then (see InputStroke.getFirstModifiedIndex)
+	 * is recomputed, so appending a point costs O(1) here.
+	 */
+	private void prepareGeometry() {
+		final int count = inputStroke.size();
+		int start = 0;
+		if (preparedInputStroke == inputStroke) {
+			start = Math.min(inputStroke.getFirstModifiedIndex(), preparedCount);
+		}
+
+		// resizing keeps the values already computed for points before start
+		final float segmentDirXs[] = this.segmentDirXs.resize(count);
+		final float segmentDirYs[] = this.segmentDirYs.resize(count);
+		final float tangentXs[] = this.tangentXs.resize(count);
+		final float tangentYs[] = this.tangentYs.resize(count);
+		final float radii[] = this.radii.resize(count);
+		final float xs[] = inputStroke.getXs();
+		final float ys[] = inputStroke.getYs();
+		final float velocities[] = inputStroke.getVelocities();
+		final PointF dir = this.dir;
+
+		// segment i depends on points i and i+1
+		for (int i = Math.max(start - 1, 0); i < count - 1; i++) {
+			PointFUtil.dir(xs[i], ys[i], xs[i + 1], ys[i + 1], dir);
+			segmentDirXs[i] = dir.x;
+			segmentDirYs[i] = dir.y;
+		}
+
+		// tangent i depends on segments i-1 and i, computed as in InputStroke.getTangent
+		for (int i = Math.max(start - 1, 0); i < count; i++) {
+			if (count < 2) {
+				tangentXs[i] = 0;
+				tangentYs[i] = 0;
+			} else if (i == 0) {
+				tangentXs[i] = segmentDirXs[0];
+				tangentYs[i] = segmentDirYs[0];
+			} else if (i == count - 1) {
+				tangentXs[i] = segmentDirXs[i - 1];
+				tangentYs[i] = segmentDirYs[i - 1];
+			} else {
+				final float abPrimeX = -segmentDirYs[i - 1];
+				final float abPrimeY = segmentDirXs[i - 1];
+				final float bcPrimeX = -segmentDirYs[i];
+				final float bcPrimeY = segmentDirXs[i];
+				final float halfX = abPrimeX + bcPrimeX;
+				final float halfY = abPrimeY + bcPrimeY;
+				if (PointFUtil.length2(halfX, halfY) > 1e-4) {
+					PointFUtil.normalize(halfY, -halfX, dir);
+					tangentXs[i] = dir.x;
+					tangentYs[i] = dir.y;
+				} else {
+					tangentXs[i] = bcPrimeX;
+					tangentYs[i] = bcPrimeY;
+				}
+			}
+		}
+
+		for (int i = start; i < count; i++) {
+			radii[i] = getRadiusForVelocity(velocities[i]);
+		}
+
+		preparedInputStroke = inputStroke;
+		preparedCount = count;
+		inputStroke.clearModifiedRange();
+	}
+
+	private void invalidateGeometry() {
+		preparedInputStroke = null;
+		preparedCount = 0;
+		invalidateIncrementalOutline();
+	}
+
+	private void invalidateIncrementalOutline() {
+		incrementalOutlineValid = false;
+		incrementalSegmentCount = 0;
+	}
+
 	private void clearCoordinateBuffers(boolean isContinuation) {
+		leftCoordinates.clear();
+		rightCoordinates.clear();
+
 		if (isContinuation) {
-			// TODO: This causes weird artifacting
-			float lx = leftCoordinates.get(-2),
-					ly = leftCoordinates.get(-1),
-					rx = rightCoordinates.get(-2),
-					ry = rightCoordinates.get(-1);
-
-			leftCoordinates.clear();
-			rightCoordinates.clear();
-
-			leftCoordinates.add(lx);
-			leftCoordinates.add(ly);
-			rightCoordinates.add(rx);
-			rightCoordinates.add(ry);
-		} else {
-			leftCoordinates.clear();
-			rightCoordinates.clear();
+			leftCoordinates.add(continuationLeftX);
+			leftCoordinates.add(continuationLeftY);
+			rightCoordinates.add(continuationRightX);
+			rightCoordinates.add(continuationRightY);
 		}
 	}
 
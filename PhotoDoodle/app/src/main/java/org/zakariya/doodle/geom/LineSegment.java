@@ -2,35 +2,52 @@ package org.zakariya.doodle.geom;
 
 import android.graphics.PointF;
 import android.support.annotation.Nullable;
-import android.util.Pair;
 
 /**
  * Created by shamyl on 10/15/15.
+ * Stores its endpoints and direction as primitives; the primitive distance/intersection
+ * methods do not allocate, and set() allows an instance to be reused in loops.
  */
 public class LineSegment {
-	private PointF a;
-	private PointF b;
-	private PointF dir;
+	private float ax, ay, bx, by;
+	private float dirX, dirY;
 	float length;
 
+	public LineSegment() {
+	}
+
 	public LineSegment(PointF a, PointF b) {
-		this.a = a;
-		this.b = b;
-		Pair<PointF, Float> dir = PointFUtil.dir(a, b);
-		this.dir = dir.first;
-		this.length = dir.second;
+		set(a.x, a.y, b.x, b.y);
+	}
+
+	public LineSegment(float ax, float ay, float bx, float by) {
+		set(ax, ay, bx, by);
+	}
+
+	public void set(float ax, float ay, float bx, float by) {
+		this.ax = ax;
+		this.ay = ay;
+		this.bx = bx;
+		this.by = by;
+
+		float dx = bx - ax;
+		float dy = by - ay;
+		length = PointFUtil.length(dx, dy) + 0.001f; // same fudge as PointFUtil.normalize
+		float rLength = 1 / length;
+		dirX = dx * rLength;
+		dirY = dy * rLength;
 	}
 
 	public PointF getA() {
-		return a;
+		return new PointF(ax, ay);
 	}
 
 	public PointF getB() {
-		return b;
+		return new PointF(bx, by);
 	}
 
 	public PointF getDir() {
-		return dir;
+		return new PointF(dirX, dirY);
 	}
 
 	public float getLength() {
@@ -38,41 +55,34 @@ public class LineSegment {
 	}
 
 	public float distance(PointF point, boolean bounded) {
+		return distance(point.x, point.y, bounded);
+	}
 
-		PointF toPoint = PointFUtil.subtract(point, a);
-		float projectedLength = PointFUtil.dot(toPoint, dir);
-
-		if (bounded) {
-			// early exit condition, we'll have to get distance from endpoints
-			if (projectedLength < 0) {
-				return PointFUtil.distance(point, a);
-			} else if (projectedLength > length) {
-				return PointFUtil.distance(point, b);
-			}
-		}
+	public float distanceSquared(PointF point, boolean bounded) {
+		return distanceSquared(point.x, point.y, bounded);
+	}
 
-		// compute distance from point to the closest projection point on the line segment
-		PointF projectedOnSegment = PointFUtil.add(a, PointFUtil.scale(dir, projectedLength));
-		return PointFUtil.distance(point, projectedOnSegment);
+	public float distance(float x, float y, boolean bounded) {
+		return (float) Math.sqrt(distanceSquared(x, y, bounded));
 	}
 
-	public float distanceSquared(PointF point, boolean bounded) {
+	public float distanceSquared(float x, float y, boolean bounded) {
 
-		PointF toPoint = PointFUtil.subtract(point, a);
-		float projectedLength = PointFUtil.dot(toPoint, dir);
+		float projectedLength = PointFUtil.dot(x - ax, y - ay, dirX, dirY);
 
 		if (bounded) {
 			// early exit condition, we'll have to get distance from endpoints
 			if (projectedLength < 0) {
-				return PointFUtil.distance2(point, a);
+				return PointFUtil.distance2(x, y, ax, ay);
 			} else if (projectedLength > length) {
-				return PointFUtil.distance2(point, b);
+				return PointFUtil.distance2(x, y, bx, by);
 			}
 		}
 
 		// compute distance from point to the closest projection point on the line segment
-		PointF projectedOnSegment = PointFUtil.add(a, PointFUtil.scale(dir, projectedLength));
-		return PointFUtil.distance2(point, projectedOnSegment);
+		float projectedX = ax + dirX * projectedLength;
+		float projectedY = ay + dirY * projectedLength;
+		return PointFUtil.distance2(x, y, projectedX, projectedY);
 	}
 
 	/**
@@ -84,32 +94,47 @@ public class LineSegment {
 	 */
 	@Nullable
 	public PointF intersection(LineSegment other, boolean bounded) {
+		PointF result = new PointF();
+		return intersection(other, bounded, result) ? result : null;
+	}
+
+	/**
+	 * Find the intersection point of this LineSegment and another, if any, without allocating.
+	 *
+	 * @param other   the line segment to intersect
+	 * @param bounded if false, the line segments are treated as infinite-length lines
+	 * @param into    receives the intersection point, if any. Untouched otherwise.
+	 * @return true if an intersection was found, false if the lines are parallel, or if the test is bounded and the segments do not intersect
+	 */
+	public boolean intersection(LineSegment other, boolean bounded, PointF into) {
 		// cribbed from: http://wiki.processing.org/w/Line-Line_intersection
-		float adx = other.a.x - a.x;
-		float ady = other.a.y - a.y;
-		float bdx = other.b.x - b.x;
-		float bdy = other.b.y - b.y;
+		float adx = other.ax - ax;
+		float ady = other.ay - ay;
+		float bdx = other.bx - bx;
+		float bdy = other.by - by;
 		float ad_dot_bd = adx * bdy - ady * bdx;
 
 		if (Math.abs(ad_dot_bd) < 1e-4) {
-			return null;
+			return false;
 		}
 
-		float abx = b.x - a.x;
-		float aby = b.y - a.y;
+		float abx = bx - ax;
+		float aby = by - ay;
 		float t = (abx * bdy - aby * bdx) / ad_dot_bd;
 
 		if (bounded) {
 			if (t < 1e-4 || t > 1 - 1e-4) {
-				return null;
+				return false;
 			}
 
 			float u = (abx * ady - aby * adx) / ad_dot_bd;
 			if (u < 1e-4 || u > 1 - 1e-4) {
-				return null;
+				return false;
 			}
 		}
 
-		return new PointF(a.x + t * adx, a.y + t * ady);
+		into.x = ax + t * adx;
+		into.y = ay + t * ady;
+		return true;
 	}
 }
@@ -0,0 +1,236 @@
+package org.zakariya.doodle.geom;
+
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+
+import org.zakariya.doodle.util.FloatBuffer;
+import org.zakariya.doodle.util.IntBuffer;
+
+/**
+ * A tessellated shape: closed polygonal contours plus circles (e.g., stroke caps), stored in reusable
+ * growable float buffers. Bounds are tracked as the shape is built, so they're available without
+ * measuring a Path. toPath converts the outline to an android.graphics.Path for rendering.
+ */
+public class Outline {
+
+	private static final int INITIAL_CONTOUR_CAPACITY = 4;
+
+	// polygon vertices as x,y pairs; contour i spans vertex floats [contourOffsets.get(i), contourOffsets.get(i+1))
+	private FloatBuffer vertices = new FloatBuffer(256);
+	private IntBuffer contourOffsets = new IntBuffer(INITIAL_CONTOUR_CAPACITY);
+
+	// circles as x,y,radius triples
+	private FloatBuffer circles = new FloatBuffer(6);
+
+	private float left, top, right, bottom;
+	private boolean empty = true;
+
+	public Outline() {
+	}
+
+	/**
+	 * Remove all contours and circles, keeping allocated storage for reuse
+	 */
+	public void reset() {
+		vertices.truncate(0);
+		circles.truncate(0);
+		contourOffsets.clear();
+		empty = true;
+	}
+
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * Start a new closed contour. Subsequently added vertices belong to it.
+	 */
+	public void beginContour() {
+		contourOffsets.add(vertices.size());
+	}
+
+	public void addVertex(float x, float y) {
+		vertices.add(x);
+		vertices.add(y);
+		include(x, y, 0);
+	}
+
+	/**
+	 * Append `count vertices from src, which holds x,y pairs, to the current contour
+	 *
+	 * @param src      source of x,y pairs
+	 * @param offset   index in src of the first vertex's x
+	 * @param count    number of vertices to add
+	 * @param reversed if true, add the vertices in reverse order, last vertex first
+	 */
+	public void addVertices(float src[], int offset, int count, boolean reversed) {
+		if (count <= 0) {
+			return;
+		}
+
+		int dst = vertices.size();
+		final float buffer[] = vertices.extend(count * 2);
+		final int step = reversed ? -2 : 2;
+
+		float minX = empty ? Float.MAX_VALUE : left;
+		float minY = empty ? Float.MAX_VALUE : top;
+		float maxX = empty ? -Float.MAX_VALUE : right;
+		float maxY = empty ? -Float.MAX_VALUE : bottom;
+		for (int i = 0, s = reversed ? offset + (count - 1) * 2 : offset; i < count; i++, s += step) {
+			final float x = src[s];
+			final float y = src[s + 1];
+			buffer[dst++] = x;
+			buffer[dst++] = y;
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+
+		left = minX;
+		top = minY;
+		right = maxX;
+		bottom = maxY;
+		empty = false;
+	}
+
+	public void addCircle(float x, float y, float radius) {
+		circles.add(x);
+		circles.add(y);
+		circles.add(radius);
+		include(x, y, radius);
+	}
+
+	public int getContourCount() {
+		return contourOffsets.size();
+	}
+
+	/**
+	 * @param i index of contour
+	 * @return index in getVertices() of the contour's first vertex's x
+	 */
+	public int getContourStart(int i) {
+		return contourOffsets.get(i);
+	}
+
+	/**
+	 * @param i index of contour
+	 * @return index in getVertices() one past the contour's last vertex's y
+	 */
+	public int getContourEnd(int i) {
+		return i + 1 < contourOffsets.size() ? contourOffsets.get(i + 1) : vertices.size();
+	}
+
+	/**
+	 * @return the vertex buffer's backing array, holding x,y pairs. Valid until the outline is next modified. Don't modify.
+	 */
+	public float[] getVertices() {
+		return vertices.getBackingArray();
+	}
+
+	public int getVertexCount() {
+		return vertices.size() / 2;
+	}
+
+	/**
+	 * @return approximate bytes of storage held by the outline
+	 */
+	public int getByteCount() {
+		return (vertices.getCapacity() + circles.getCapacity() + contourOffsets.getCapacity()) * 4;
+	}
+
+	public int getCircleCount() {
+		return circles.size() / 3;
+	}
+
+	/**
+	 * @return the circle buffer's backing array, holding x,y,radius triples. Valid until the outline is next modified. Don't modify.
+	 */
+	public float[] getCircles() {
+		return circles.getBackingArray();
+	}
+
+	/**
+	 * Get the bounds of the outline
+	 *
+	 * @param into RectF to receive the bounds; set empty if the outline is empty
+	 * @return into
+	 */
+	public RectF getBounds(@NonNull RectF into) {
+		if (empty) {
+			into.setEmpty();
+		} else {
+			into.set(left, top, right, bottom);
+		}
+		return into;
+	}
+
+	public RectF getBounds() {
+		return getBounds(new RectF());
+	}
+
+	/**
+	 * Append the outline's contours and circles to a Path
+	 *
+	 * @param into the path to append to
+	 * @return into
+	 */
+	public Path toPath(@NonNull Path into) {
+		final float v[] = vertices.getBackingArray();
+		for (int i = 0, n = contourOffsets.size(); i < n; i++) {
+			final int start = getContourStart(i);
+			final int end = getContourEnd(i);
+			if (end - start < 2) {
+				continue;
+			}
+
+			into.moveTo(v[start], v[start + 1]);
+			for (int j = start + 2; j < end; j += 2) {
+				into.lineTo(v[j], v[j + 1]);
+			}
+			into.close();
+		}
+
+		final float c[] = circles.getBackingArray();
+		for (int i = 0, n = circles.size(); i < n; i += 3) {
+			into.addCircle(c[i], c[i + 1], c[i + 2], Path.Direction.CCW);
+		}
+
+		return into;
+	}
+
+	/**
+	 * @return a copy of this outline, compacted to its current size
+	 */
+	public Outline copy() {
+		Outline copy = new Outline();
+		copy.vertices = new FloatBuffer(Math.max(vertices.size(), 2));
+		copy.circles = new FloatBuffer(Math.max(circles.size(), 3));
+		copy.contourOffsets = new IntBuffer(Math.max(contourOffsets.size(), 1));
+		System.arraycopy(vertices.getBackingArray(), 0, copy.vertices.extend(vertices.size()), 0, vertices.size());
+		System.arraycopy(circles.getBackingArray(), 0, copy.circles.extend(circles.size()), 0, circles.size());
+		System.arraycopy(contourOffsets.getBackingArray(), 0, copy.contourOffsets.extend(contourOffsets.size()), 0, contourOffsets.size());
+		copy.left = left;
+		copy.top = top;
+		copy.right = right;
+		copy.bottom = bottom;
+		copy.empty = empty;
+		return copy;
+	}
+
+	private void include(float x, float y, float radius) {
+		if (empty) {
+			left = x - radius;
+			top = y - radius;
+			right = x + radius;
+			bottom = y + radius;
+			empty = false;
+		} else {
+			left = Math.min(left, x - radius);
+			top = Math.min(top, y - radius);
+			right = Math.max(right, x + radius);
+			bottom = Math.max(bottom, y + radius);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package org.zakariya.doodle.geom;
+
+import android.support.annotation.Nullable;
+
+import org.zakariya.doodle.util.CancellationToken;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tessellates batches of independent InputStrokes into Outlines on a fixed pool of worker threads. Tessellating
+ * one committed stroke doesn't depend on any other, so a batch is spread across the workers and the calling
+ * thread, which claim jobs from a shared counter; tessellate() returns when every job is done, and the caller
+ * composites the outlines in order.
+ * <p/>
+ * The caller works through the batch too, so tessellate() never waits on a busy or saturated pool, and may be
+ * called from several threads at once. Each job's InputStroke must not be shared with any other job or thread
+ * while the batch runs, since tessellating a stroke clears its modified range.
+ */
+public class ParallelStrokeTessellator {
+
+	/**
+	 * A stroke to tessellate, with the brush parameters to tessellate it with. result is set by tessellate()
+	 */
+	public static final class Job {
+		final InputStroke inputStroke;
+		final float minWidth, maxWidth, maxVelDPps;
+		Outline result;
+
+		public Job(InputStroke inputStroke, float minWidth, float maxWidth, float maxVelDPps) {
+			this.inputStroke = inputStroke;
+			this.minWidth = minWidth;
+			this.maxWidth = maxWidth;
+			this.maxVelDPps = maxVelDPps;
+		}
+
+		public InputStroke getInputStroke() {
+			return inputStroke;
+		}
+
+		/**
+		 * @return the stroke's outline, compacted, once tessellate() has returned
+		 */
+		public Outline getResult() {
+			return result;
+		}
+	}
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+	private static final long KEEP_ALIVE_SECONDS = 10;
+
+	private int parallelism;
+	private ExecutorService executor;
+
+	/**
+	 * @param parallelism number of threads, including the calling thread, to tessellate a batch with
+	 */
+	public ParallelStrokeTessellator(int parallelism) {
+		setParallelism(parallelism);
+	}
+
+	public synchronized int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism number of threads, including the calling thread, to tessellate a batch with. 1 tessellates on the calling thread alone
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		parallelism = Math.max(parallelism, 1);
+		if (parallelism != this.parallelism) {
+			shutdown();
+			this.parallelism = parallelism;
+		}
+	}
+
+	/**
+	 * Retire the worker threads. Batches in progress keep using them; once idle they exit. The next batch which
+	 * needs workers starts new ones. The pool isn't shut down outright, since another thread may be about to hand
+	 * it a batch.
+	 */
+	public synchronized void shutdown() {
+		executor = null;
+	}
+
+	/**
+	 * Tessellate each job's stroke, with caps at both ends, into its result. Blocks until all jobs are done.
+	 *
+	 * @param jobs      the jobs
+	 * @param tolerance subdivision tolerance, see InputStrokeTessellator.setSubdivisionTolerance
+	 * @param scale     subdivision scale, see InputStrokeTessellator.setSubdivisionTolerance
+	 */
+	public void tessellate(List<Job> jobs, float tolerance, float scale) {
+		tessellate(jobs, tolerance, scale, null);
+	}
+
+	/**
+	 * Tessellate each job's stroke, as tessellate(List, float, float), unless the batch is canceled. Once token is
+	 * canceled, jobs not yet started are skipped, leaving their results null, and the batch returns as soon as the
+	 * jobs in progress are done.
+	 *
+	 * @param jobs      the jobs
+	 * @param tolerance subdivision tolerance, see InputStrokeTessellator.setSubdivisionTolerance
+	 * @param scale     subdivision scale, see InputStrokeTessellator.setSubdivisionTolerance
+	 * @param token     if not null, a token which cancels the batch
+	 */
+	public void tessellate(final List<Job> jobs, final float tolerance, final float scale, @Nullable final CancellationToken token) {
+		final int count = jobs.size();
+		if (count == 0) {
+			return;
+		}
+
+		final AtomicInteger next = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(count);
+		final Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				work(jobs, next, done, tolerance, scale, token);
+			}
+		};
+
+		// take the parallelism and the pool together, so a concurrent setParallelism can't pair one with the other
+		final int helpers;
+		final ExecutorService executor;
+		synchronized (this) {
+			helpers = Math.min(parallelism, count) - 1;
+			executor = helpers > 0 ? getExecutor() : null;
+		}
+
+		if (executor != null) {
+			for (int i = 0; i < helpers; i++) {
+				executor.execute(worker);
+			}
+		}
+
+		worker.run();
+
+		// jobs claimed by helpers may still be running
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void work(List<Job> jobs, AtomicInteger next, CountDownLatch done, float tolerance, float scale, CancellationToken token) {
+		InputStrokeTessellator tess = null;
+		try {
+			for (int i = next.getAndIncrement(), n = jobs.size(); i < n; i = next.getAndIncrement()) {
+				if (CancellationToken.isCanceled(token)) {
+					// claim and skip, so the latch still reaches zero
+					done.countDown();
+					continue;
+				}
+
+				if (tess == null) {
+					tess = new InputStrokeTessellator();
+					tess.setSubdivisionTolerance(tolerance, scale);
+				}
+
+				Job job = jobs.get(i);
+				try {
+					tess.setMinWidth(job.minWidth);
+					tess.setMaxWidth(job.maxWidth);
+					tess.setMaxVelDPps(job.maxVelDPps);
+					tess.setInputStroke(job.inputStroke);
+					job.result = tess.tessellate(0, job.inputStroke.size() - 1, false, true, true, tess.getOutline()).copy();
+				} finally {
+					// count down even if the job failed, so the caller isn't left waiting
+					done.countDown();
+				}
+			}
+		} finally {
+			if (tess != null) {
+				tess.release();
+			}
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			// idle threads time out, so a pool retired by shutdown() or setParallelism() drains and goes away
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism - 1, parallelism - 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ParallelStrokeTessellator-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		return executor;
+	}
+}
@@ -5,6 +5,8 @@ import android.util.Pair;
 
 /**
  * Created by shamyl on 9/2/15.
+ * The PointF-returning methods allocate their results. For hot paths, use the primitive
+ * overloads which take scalar inputs and write vector results into a caller-supplied PointF.
  */
 public class PointFUtil {
 
@@ -66,4 +68,98 @@ public class PointFUtil {
 		return new PointF(-p.y, p.x);
 	}
 
+	// Allocation-free primitive variants
+
+	public static float length(float x, float y) {
+		return (float) Math.sqrt((x * x) + (y * y));
+	}
+
+	public static float length2(float x, float y) {
+		return (x * x) + (y * y);
+	}
+
+	public static float distance(float ax, float ay, float bx, float by) {
+		float dx = bx - ax;
+		float dy = by - ay;
+		return (float) Math.sqrt((dx * dx) + (dy * dy));
+	}
+
+	public static float distance2(float ax, float ay, float bx, float by) {
+		float dx = bx - ax;
+		float dy = by - ay;
+		return (dx * dx) + (dy * dy);
+	}
+
+	public static float dot(float ax, float ay, float bx, float by) {
+		return ax * bx + ay * by;
+	}
+
+	/**
+	 * Normalize the vector (x,y), writing the unit vector into `into
+	 *
+	 * @param x    x component of vector to normalize
+	 * @param y    y component of vector to normalize
+	 * @param into receives the normalized vector
+	 * @return the length of the input vector (with the same tiny fudge as normalize(PointF))
+	 */
+	public static float normalize(float x, float y, PointF into) {
+		float length = length(x, y) + 0.001f; // start tiny fudge to prevent div by zero
+		float rLength = 1 / length;
+		into.x = x * rLength;
+		into.y = y * rLength;
+		return length;
+	}
+
+	/**
+	 * Compute the unit direction vector from a to b, writing it into `into
+	 *
+	 * @param ax   x of start point
+	 * @param ay   y of start point
+	 * @param bx   x of end point
+	 * @param by   y of end point
+	 * @param into receives the unit direction vector
+	 * @return the distance from a to b
+	 */
+	public static float dir(float ax, float ay, float bx, float by, PointF into) {
+		return normalize(bx - ax, by - ay, into);
+	}
+
+	public static PointF scale(PointF p, float scale, PointF into) {
+		into.x = p.x * scale;
+		into.y = p.y * scale;
+		return into;
+	}
+
+	public static PointF add(PointF a, PointF b, PointF into) {
+		into.x = a.x + b.x;
+		into.y = a.y + b.y;
+		return into;
+	}
+
+	public static PointF subtract(PointF a, PointF b, PointF into) {
+		into.x = a.x - b.x;
+		into.y = a.y - b.y;
+		return into;
+	}
+
+	/**
+	 * Rotate p clockwise by 90 degrees into `into. It's safe for p and into to be the same instance.
+	 */
+	public static PointF rotateCW(PointF p, PointF into) {
+		float x = p.x;
+		into.x = p.y;
+		into.y = -x;
+		return into;
+	}
+
+	/**
+	 * Rotate p counter-clockwise by 90 degrees into `into. It's safe for p and into to be the same instance.
+	 */
+	public static PointF rotateCCW(PointF p, PointF into) {
+		float x = p.x;
+		into.x = -p.y;
+		into.y = x;
+		return into;
+	}
+
 }
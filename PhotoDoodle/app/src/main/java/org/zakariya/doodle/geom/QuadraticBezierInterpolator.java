@@ -1,6 +1,9 @@
 package org.zakariya.doodle.geom;
 
 import android.graphics.PointF;
+import android.support.annotation.NonNull;
+
+import org.zakariya.doodle.util.FloatBuffer;
 
 import static org.zakariya.doodle.geom.PointFUtil.distance;
 
@@ -63,6 +66,71 @@ public class QuadraticBezierInterpolator {
 		return new PointF(bX, bY);
 	}
 
+	/**
+	 * Flatten the curve by appending the points at t = 1/subdivisions, 2/subdivisions ... 1 to `into as x,y pairs.
+	 * The start point (t = 0) is not appended. See CubicBezierInterpolator.flatten
+	 *
+	 * @param subdivisions number of points to append
+	 * @param into         buffer to append to
+	 */
+	public void flatten(int subdivisions, @NonNull FloatBuffer into) {
+		if (subdivisions < 1) {
+			return;
+		}
+
+		// power basis coefficients of P(t) = a*t^2 + b*t + start
+		final float ax = start.x - 2 * control.x + end.x;
+		final float ay = start.y - 2 * control.y + end.y;
+		final float bx = 2 * (control.x - start.x);
+		final float by = 2 * (control.y - start.y);
+
+		// forward differences for step h
+		final float h = 1f / subdivisions;
+		final float h2 = h * h;
+		float d1x = ax * h2 + bx * h;
+		float d1y = ay * h2 + by * h;
+		final float d2x = 2 * ax * h2;
+		final float d2y = 2 * ay * h2;
+
+		float px = start.x;
+		float py = start.y;
+		int offset = into.size();
+		final float buffer[] = into.extend(subdivisions * 2);
+		for (int i = 1; i < subdivisions; i++) {
+			px += d1x;
+			py += d1y;
+			d1x += d2x;
+			d1y += d2y;
+			buffer[offset++] = px;
+			buffer[offset++] = py;
+		}
+
+		buffer[offset++] = end.x;
+		buffer[offset] = end.y;
+	}
+
+	/**
+	 * @return length of the control polygon's second difference. This is zero for a straight line, and bounds how far
+	 * the curve bends away from its chords.
+	 */
+	public float getFlatness() {
+		final float dx = start.x - 2 * control.x + end.x;
+		final float dy = start.y - 2 * control.y + end.y;
+		return (float) Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Get the number of uniform subdivisions needed to keep the flattened curve within `tolerance of the true curve
+	 * when rendered at `scale. See CubicBezierInterpolator.getSubdivisions
+	 *
+	 * @param tolerance max allowed deviation, in rendered units (e.g., device pixels)
+	 * @param scale     the scale at which the curve is being rendered
+	 * @return number of subdivisions, at least 1
+	 */
+	public int getSubdivisions(float tolerance, float scale) {
+		return Math.max((int) Math.ceil(Math.sqrt(0.25f * getFlatness() * scale / tolerance)), 1);
+	}
+
 	/**
 	 * @param scale the scale at which the line is being rendered
 	 * @return An estimated number of subdivisions to divide this bezier curve into to represent start visually appendAndSmooth curve.
@@ -14,4 +14,11 @@ public class RectFUtil {
 		}
 		return new RectF(Math.min(a.x, b.x), Math.min(a.y, b.y), Math.max(a.x, b.x), Math.max(a.y, b.y));
 	}
+
+	public static RectF containing(float ax, float ay, float bx, float by) {
+		if (ax == bx && ay == by) {
+			return new RectF(ax - 0.5f, ay - 0.5f, ax + 0.5f, ay + 0.5f);
+		}
+		return new RectF(Math.min(ax, bx), Math.min(ay, by), Math.max(ax, bx), Math.max(ay, by));
+	}
 }
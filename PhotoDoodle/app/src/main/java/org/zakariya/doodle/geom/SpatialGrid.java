@@ -0,0 +1,165 @@
+package org.zakariya.doodle.geom;
+
+import android.graphics.RectF;
+
+import org.zakariya.doodle.util.FloatBuffer;
+import org.zakariya.doodle.util.LongBuffer;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over a rectangular extent, indexing items by their bounding rects. Each item is identified by a
+ * caller-assigned long id, and is listed in every cell its bounds overlap; items reaching outside the extent
+ * are listed in the border cells, so nothing is ever missed by a query. Queries return matching ids in ascending
+ * order, so callers can encode draw order in the ids.
+ */
+public class SpatialGrid {
+
+	private final float left, top, cellWidth, cellHeight;
+	private final int columns, rows;
+
+	// per cell: item ids, and their bounds as left,top,right,bottom quads
+	private final LongBuffer cellIds[];
+	private final FloatBuffer cellBounds[];
+
+	/**
+	 * @param extent  region covered by the grid's cells
+	 * @param columns number of columns of cells
+	 * @param rows    number of rows of cells
+	 */
+	public SpatialGrid(RectF extent, int columns, int rows) {
+		this.left = extent.left;
+		this.top = extent.top;
+		this.columns = columns;
+		this.rows = rows;
+		cellWidth = extent.width() / columns;
+		cellHeight = extent.height() / rows;
+		cellIds = new LongBuffer[columns * rows];
+		cellBounds = new FloatBuffer[columns * rows];
+	}
+
+	public void clear() {
+		for (int i = 0; i < cellIds.length; i++) {
+			cellIds[i] = null;
+			cellBounds[i] = null;
+		}
+	}
+
+	/**
+	 * Add an item
+	 *
+	 * @param id     the item's id
+	 * @param bounds the item's bounds
+	 */
+	public void insert(long id, RectF bounds) {
+		final int c0 = column(bounds.left), c1 = column(bounds.right);
+		final int r0 = row(bounds.top), r1 = row(bounds.bottom);
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				final int i = r * columns + c;
+				if (cellIds[i] == null) {
+					cellIds[i] = new LongBuffer(4);
+					cellBounds[i] = new FloatBuffer(16);
+				}
+
+				cellIds[i].add(id);
+				cellBounds[i].add(bounds.left, bounds.top);
+				cellBounds[i].add(bounds.right, bounds.bottom);
+			}
+		}
+	}
+
+	/**
+	 * Remove all items with ids greater than or equal to minId
+	 *
+	 * @param minId smallest id to remove
+	 */
+	public void removeFrom(long minId) {
+		removeRange(minId, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Remove all items with ids in [fromId, toId)
+	 *
+	 * @param fromId smallest id to remove
+	 * @param toId   id after the largest to remove
+	 */
+	public void removeRange(long fromId, long toId) {
+		for (int i = 0; i < cellIds.length; i++) {
+			final LongBuffer ids = cellIds[i];
+			if (ids == null) {
+				continue;
+			}
+
+			final long idArray[] = ids.getBackingArray();
+			final float boundsArray[] = cellBounds[i].getBackingArray();
+			int kept = 0;
+			for (int j = 0, n = ids.size(); j < n; j++) {
+				if (idArray[j] < fromId || idArray[j] >= toId) {
+					idArray[kept] = idArray[j];
+					System.arraycopy(boundsArray, j * 4, boundsArray, kept * 4, 4);
+					kept++;
+				}
+			}
+
+			ids.truncate(kept);
+			cellBounds[i].truncate(kept * 4);
+		}
+	}
+
+	/**
+	 * Find the items whose bounds intersect a region
+	 *
+	 * @param region the region, or null to find all items
+	 * @param into   receives the distinct ids of the intersecting items, in ascending order. It's cleared first
+	 * @return into
+	 */
+	public LongBuffer query(RectF region, LongBuffer into) {
+		into.clear();
+
+		final int c0 = region != null ? column(region.left) : 0;
+		final int c1 = region != null ? column(region.right) : columns - 1;
+		final int r0 = region != null ? row(region.top) : 0;
+		final int r1 = region != null ? row(region.bottom) : rows - 1;
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				final int i = r * columns + c;
+				final LongBuffer ids = cellIds[i];
+				if (ids == null) {
+					continue;
+				}
+
+				final long idArray[] = ids.getBackingArray();
+				final float b[] = cellBounds[i].getBackingArray();
+				for (int j = 0, n = ids.size(); j < n; j++) {
+					final int k = j * 4;
+					if (region == null || (b[k] <= region.right && b[k + 2] >= region.left && b[k + 1] <= region.bottom && b[k + 3] >= region.top)) {
+						into.add(idArray[j]);
+					}
+				}
+			}
+		}
+
+		// an item spanning several cells is found once per cell
+		final long result[] = into.getBackingArray();
+		final int count = into.size();
+		Arrays.sort(result, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (unique == 0 || result[i] != result[unique - 1]) {
+				result[unique++] = result[i];
+			}
+		}
+		into.truncate(unique);
+
+		return into;
+	}
+
+	private int column(float x) {
+		return Math.min(Math.max((int) Math.floor((x - left) / cellWidth), 0), columns - 1);
+	}
+
+	private int row(float y) {
+		return Math.min(Math.max((int) Math.floor((y - top) / cellHeight), 0), rows - 1);
+	}
+}
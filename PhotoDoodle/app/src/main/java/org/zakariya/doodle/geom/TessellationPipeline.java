@@ -0,0 +1,405 @@
+package org.zakariya.doodle.geom;
+
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.Process;
+
+import org.zakariya.doodle.util.FloatBuffer;
+import org.zakariya.doodle.util.LongBuffer;
+import org.zakariya.doodle.util.SampleRingBuffer;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs IncrementalInputStrokeTessellator on a worker thread. The UI thread publishes touch samples into a
+ * SampleRingBuffer, the worker tessellates them and queues the resulting outlines, and the UI thread picks the
+ * outlines up when it next draws (see collect and getLiveOutline), building Paths from them itself. Outlines are
+ * never modified after they're queued, so no android.graphics object is shared between the threads. Samples are fed
+ * to the tessellator in the same batches they were published in, so the output is identical to running
+ * IncrementalInputStrokeTessellator synchronously on the same input.
+ * The worker thread is started on demand, and exits after being idle for WORKER_IDLE_TIMEOUT_MILLIS.
+ *
+ * @param <T> type of the tag identifying a stroke's output, e.g., the brush it's to be drawn with
+ */
+public class TessellationPipeline<T> {
+
+	private static final String TAG = "TessellationPipeline";
+	private static final int RING_BUFFER_CAPACITY = 4096;
+	private static final long WORKER_IDLE_TIMEOUT_MILLIS = 1000;
+
+	private static final int FLAG_SAMPLE = 0;
+	private static final int FLAG_END_OF_BATCH = 1;
+	private static final int FLAG_BEGIN = 2;
+	private static final int FLAG_FINISH = 3;
+
+	public interface Listener {
+		/**
+		 * Called on the worker thread when tessellated output is ready to be picked up. Implementations should
+		 * schedule a redraw, e.g., via View.postInvalidate, and call collect when drawing.
+		 */
+		void onTessellationAvailable();
+	}
+
+	public interface Consumer<T> {
+		/**
+		 * A chunk of a stroke has been tessellated and won't change.
+		 *
+		 * @param tag     the tag passed to begin for the stroke
+		 * @param outline the static outline chunk. Don't modify
+		 * @param rect    the rect containing outline
+		 */
+		void onStaticOutline(T tag, Outline outline, RectF rect);
+
+		/**
+		 * A stroke has been finished and all its static outlines have been passed to onStaticOutline.
+		 *
+		 * @param tag               the tag passed to begin for the stroke
+		 * @param inputStrokes      the stroke's input, as from IncrementalInputStrokeTessellator.getInputStrokes
+		 * @param hasStaticOutlines true if the stroke produced any static outlines
+		 */
+		void onStrokeFinished(T tag, ArrayList<InputStroke> inputStrokes, boolean hasStaticOutlines);
+	}
+
+	/**
+	 * Snapshot of the live outline of the stroke being tessellated. Don't modify.
+	 */
+	public static class LiveOutline<T> {
+		public final T tag;
+		public final Outline outline;
+		public final RectF rect;
+
+		LiveOutline(T tag, Outline outline, RectF rect) {
+			this.tag = tag;
+			this.outline = outline;
+			this.rect = rect;
+		}
+	}
+
+	private static class Output<T> {
+		T tag;
+		Outline staticOutline;
+		RectF rect;
+		ArrayList<InputStroke> inputStrokes;
+		boolean hasStaticOutlines;
+	}
+
+	/**
+	 * State of a single stroke; created on the UI thread by begin, then owned by the worker
+	 */
+	private static class Session<T> implements IncrementalInputStrokeTessellator.OutlineListener {
+		private T tag;
+		private float optimizationThreshold, minWidth, maxWidth, maxVelDPps;
+		private float subdivisionTolerance, subdivisionScale;
+		private IncrementalInputStrokeTessellator tessellator;
+		private ConcurrentLinkedQueue<Output<T>> outputQueue;
+		private Outline liveOutline;
+		private RectF liveOutlineRect = new RectF();
+		private boolean liveOutlineModified;
+		private boolean hasStaticOutlines;
+
+		Session(T tag, float optimizationThreshold, float minWidth, float maxWidth, float maxVelDPps, float subdivisionTolerance, float subdivisionScale, ConcurrentLinkedQueue<Output<T>> outputQueue) {
+			this.tag = tag;
+			this.optimizationThreshold = optimizationThreshold;
+			this.minWidth = minWidth;
+			this.maxWidth = maxWidth;
+			this.maxVelDPps = maxVelDPps;
+			this.subdivisionTolerance = subdivisionTolerance;
+			this.subdivisionScale = subdivisionScale;
+			this.outputQueue = outputQueue;
+		}
+
+		void start() {
+			tessellator = new IncrementalInputStrokeTessellator(this);
+			tessellator.setSubdivisionTolerance(subdivisionTolerance, subdivisionScale);
+		}
+
+		@Override
+		public void onInputStrokeModified(InputStroke inputStroke, int startIndex, int endIndex, RectF rect) {
+		}
+
+		@Override
+		public void onLivePathModified(Path path, RectF rect) {
+			// not called for an OutlineListener
+		}
+
+		@Override
+		public void onNewStaticPathAvailable(Path path, RectF rect) {
+			// not called for an OutlineListener
+		}
+
+		@Override
+		public void onLiveOutlineModified(Outline outline, RectF rect) {
+			liveOutline = outline;
+			liveOutlineRect.set(rect);
+			liveOutlineModified = true;
+		}
+
+		@Override
+		public void onNewStaticOutlineAvailable(Outline outline, RectF rect) {
+			Output<T> output = new Output<>();
+			output.tag = tag;
+			output.staticOutline = outline;
+			output.rect = new RectF(rect);
+			outputQueue.add(output);
+			hasStaticOutlines = true;
+		}
+
+		@Override
+		public float getInputStrokeOptimizationThreshold() {
+			return optimizationThreshold;
+		}
+
+		@Override
+		public float getStrokeMinWidth() {
+			return minWidth;
+		}
+
+		@Override
+		public float getStrokeMaxWidth() {
+			return maxWidth;
+		}
+
+		@Override
+		public float getStrokeMaxVelDPps() {
+			return maxVelDPps;
+		}
+	}
+
+	private SampleRingBuffer ringBuffer = new SampleRingBuffer(RING_BUFFER_CAPACITY);
+	private ConcurrentLinkedQueue<Session<T>> pendingSessions = new ConcurrentLinkedQueue<>();
+	private ConcurrentLinkedQueue<Output<T>> outputQueue = new ConcurrentLinkedQueue<>();
+	private AtomicReference<LiveOutline<T>> liveOutline = new AtomicReference<>();
+	private WeakReference<Listener> listenerWeakReference;
+
+	private AtomicBoolean workerRunning = new AtomicBoolean(false);
+	private volatile Thread workerThread;
+	private volatile boolean workerWaiting;
+
+	// signalled by the worker each time it consumes samples, for producers waiting on it (see awaitIdle and publish)
+	private ReentrantLock consumedLock = new ReentrantLock();
+	private Condition samplesConsumed = consumedLock.newCondition();
+
+	// worker thread state
+	private Session<T> session;
+	private FloatBuffer batchPositions = new FloatBuffer(64);
+	private LongBuffer batchTimestamps = new LongBuffer(32);
+
+	/**
+	 * Create a TessellationPipeline
+	 * NOTE: listener is held weakly
+	 *
+	 * @param listener listener to notify when output is ready to be collected
+	 */
+	public TessellationPipeline(Listener listener) {
+		listenerWeakReference = new WeakReference<>(listener);
+	}
+
+	/**
+	 * Begin a new stroke. UI thread only.
+	 *
+	 * @param tag                   tag identifying the stroke's output
+	 * @param optimizationThreshold optimization threshold for the stroke's InputStroke
+	 * @param minWidth              min-width for the generated stroke
+	 * @param maxWidth              max-width for the generated stroke
+	 * @param maxVelDPps            input velocity which generates max width stroke
+	 * @param subdivisionTolerance  max deviation of the flattened outline. See InputStrokeTessellator.setSubdivisionTolerance
+	 * @param subdivisionScale      scale from canvas units to the units of subdivisionTolerance
+	 */
+	public void begin(T tag, float optimizationThreshold, float minWidth, float maxWidth, float maxVelDPps, float subdivisionTolerance, float subdivisionScale) {
+		pendingSessions.add(new Session<>(tag, optimizationThreshold, minWidth, maxWidth, maxVelDPps, subdivisionTolerance, subdivisionScale, outputQueue));
+		publish(0, 0, 0, FLAG_BEGIN);
+		signalWorker();
+	}
+
+	/**
+	 * Add a batch of samples to the current stroke. UI thread only.
+	 *
+	 * @param positions  sample positions, packed as x0,y0,x1,y1...
+	 * @param timestamps sample timestamps in milliseconds
+	 * @param count      number of samples
+	 */
+	public void add(float positions[], long timestamps[], int count) {
+		for (int i = 0; i < count; i++) {
+			publish(positions[i * 2], positions[i * 2 + 1], timestamps[i], i == count - 1 ? FLAG_END_OF_BATCH : FLAG_SAMPLE);
+		}
+		signalWorker();
+	}
+
+	/**
+	 * Finish the current stroke. UI thread only.
+	 */
+	public void finish() {
+		publish(0, 0, 0, FLAG_FINISH);
+		signalWorker();
+	}
+
+	/**
+	 * @return the most recent live outline of the stroke being tessellated, or null if there isn't one. The snapshot is not modified after publication.
+	 */
+	public LiveOutline<T> getLiveOutline() {
+		return liveOutline.get();
+	}
+
+	/**
+	 * Pass output tessellated since the last call to consumer, in order. UI thread only.
+	 *
+	 * @param consumer receives static outlines and finished strokes
+	 */
+	public void collect(Consumer<T> consumer) {
+		Output<T> output;
+		while ((output = outputQueue.poll()) != null) {
+			if (output.staticOutline != null) {
+				consumer.onStaticOutline(output.tag, output.staticOutline, output.rect);
+			} else {
+				consumer.onStrokeFinished(output.tag, output.inputStrokes, output.hasStaticOutlines);
+			}
+		}
+	}
+
+	/**
+	 * Block until every sample published so far has been tessellated. UI thread only.
+	 * After this returns, collect will pass all output for the published samples.
+	 */
+	public void awaitIdle() {
+		if (ringBuffer.isEmpty()) {
+			return;
+		}
+
+		consumedLock.lock();
+		try {
+			// the worker signals after consuming, under the lock, so emptying can't slip between the check and the wait
+			while (!ringBuffer.isEmpty()) {
+				signalWorker();
+				samplesConsumed.awaitUninterruptibly();
+			}
+		} finally {
+			consumedLock.unlock();
+		}
+	}
+
+	private void publish(float x, float y, long timestamp, int flag) {
+		if (ringBuffer.offer(x, y, timestamp, flag)) {
+			return;
+		}
+
+		// the worker has fallen a whole ring behind; wait for it rather than drop input
+		consumedLock.lock();
+		try {
+			while (!ringBuffer.offer(x, y, timestamp, flag)) {
+				signalWorker();
+				samplesConsumed.awaitUninterruptibly();
+			}
+		} finally {
+			consumedLock.unlock();
+		}
+	}
+
+	private void signalWorker() {
+		if (workerRunning.compareAndSet(false, true)) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+					runWorker();
+				}
+			}, TAG);
+			workerThread = thread;
+			thread.start();
+		} else if (workerWaiting) {
+			LockSupport.unpark(workerThread);
+		}
+	}
+
+	private void runWorker() {
+		while (true) {
+			if (ringBuffer.isEmpty()) {
+				workerWaiting = true;
+				if (ringBuffer.isEmpty()) {
+					LockSupport.parkNanos(this, WORKER_IDLE_TIMEOUT_MILLIS * 1000000L);
+				}
+				workerWaiting = false;
+
+				if (ringBuffer.isEmpty()) {
+					// idle timeout. The producer starts a new worker if it publishes after workerRunning is cleared,
+					// otherwise this worker picks the sample up
+					workerRunning.set(false);
+					if (ringBuffer.isEmpty() || !workerRunning.compareAndSet(false, true)) {
+						return;
+					}
+				}
+
+				continue;
+			}
+
+			process(ringBuffer.available());
+		}
+	}
+
+	/**
+	 * Tessellate count samples from the ring buffer, publish the output, then release the samples. A batch
+	 * may be split across calls, so samples are accumulated until the end of their batch is seen.
+	 */
+	private void process(int count) {
+		for (int i = 0; i < count; i++) {
+			switch (ringBuffer.getFlag(i)) {
+				case FLAG_BEGIN:
+					session = pendingSessions.poll();
+					session.start();
+					break;
+
+				case FLAG_SAMPLE:
+				case FLAG_END_OF_BATCH:
+					batchPositions.add(ringBuffer.getX(i), ringBuffer.getY(i));
+					batchTimestamps.add(ringBuffer.getTimestamp(i));
+
+					if (ringBuffer.getFlag(i) == FLAG_END_OF_BATCH) {
+						session.tessellator.add(batchPositions.getBackingArray(), batchTimestamps.getBackingArray(), batchTimestamps.size());
+						batchPositions.clear();
+						batchTimestamps.clear();
+					}
+					break;
+
+				case FLAG_FINISH:
+					session.tessellator.finish();
+
+					Output<T> output = new Output<>();
+					output.tag = session.tag;
+					output.inputStrokes = session.tessellator.getInputStrokes();
+					output.hasStaticOutlines = session.hasStaticOutlines;
+					outputQueue.add(output);
+					session.liveOutline = null;
+					session.liveOutlineModified = true;
+					break;
+			}
+		}
+
+		if (session != null && session.liveOutlineModified) {
+			// the tessellator reuses its live outline, so publish a copy
+			session.liveOutlineModified = false;
+			liveOutline.set(session.liveOutline != null
+					? new LiveOutline<>(session.tag, session.liveOutline.copy(), new RectF(session.liveOutlineRect))
+					: null);
+		}
+
+		ringBuffer.consume(count);
+
+		consumedLock.lock();
+		try {
+			samplesConsumed.signalAll();
+		} finally {
+			consumedLock.unlock();
+		}
+
+		Listener listener = listenerWeakReference.get();
+		if (listener != null) {
+			listener.onTessellationAvailable();
+		}
+	}
+}
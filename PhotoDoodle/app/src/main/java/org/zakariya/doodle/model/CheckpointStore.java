@@ -0,0 +1,118 @@
+package org.zakariya.doodle.model;
+
+import android.support.annotation.Nullable;
+
+import org.zakariya.doodle.util.TiledBitmap;
+
+import java.util.ArrayList;
+
+/**
+ * Memory bounded store of raster checkpoints of a drawing. A checkpoint at step index n is a snapshot of the
+ * backing store after the first n drawing steps were rendered, so undo can restore the nearest checkpoint
+ * and replay only the steps after it. When the store exceeds its byte budget, the oldest checkpoints are
+ * evicted first, since undo and redo mostly touch recent history.
+ */
+public class CheckpointStore {
+
+	public static final class Checkpoint {
+		private final int stepIndex;
+		private final TiledBitmap.Snapshot snapshot;
+
+		private Checkpoint(int stepIndex, TiledBitmap.Snapshot snapshot) {
+			this.stepIndex = stepIndex;
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * @return number of drawing steps rendered into the checkpoint's snapshot
+		 */
+		public int getStepIndex() {
+			return stepIndex;
+		}
+
+		public TiledBitmap.Snapshot getSnapshot() {
+			return snapshot;
+		}
+	}
+
+	private final int maxBytes;
+	private int byteCount;
+
+	// ordered by ascending step index
+	private ArrayList<Checkpoint> checkpoints = new ArrayList<>();
+
+	/**
+	 * @param maxBytes max bytes of snapshot storage to hold
+	 */
+	public CheckpointStore(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public int getByteCount() {
+		return byteCount;
+	}
+
+	public int size() {
+		return checkpoints.size();
+	}
+
+	/**
+	 * Add a checkpoint, replacing any with the same or a later step index, then evict old checkpoints to fit the budget
+	 *
+	 * @param stepIndex number of drawing steps rendered into snapshot
+	 * @param snapshot  the snapshot. The store takes ownership and recycles it on eviction
+	 */
+	public void add(int stepIndex, TiledBitmap.Snapshot snapshot) {
+		discardAfter(stepIndex - 1);
+		checkpoints.add(new Checkpoint(stepIndex, snapshot));
+		byteCount += snapshot.getByteCount();
+
+		// always keep the newest checkpoint, even if it alone exceeds the budget
+		while (byteCount > maxBytes && checkpoints.size() > 1) {
+			remove(0);
+		}
+	}
+
+	/**
+	 * @param stepIndex a step index
+	 * @return the checkpoint with the greatest step index not greater than stepIndex, or null if there isn't one
+	 */
+	@Nullable
+	public Checkpoint getNearest(int stepIndex) {
+		for (int i = checkpoints.size() - 1; i >= 0; i--) {
+			Checkpoint checkpoint = checkpoints.get(i);
+			if (checkpoint.stepIndex <= stepIndex) {
+				return checkpoint;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the step index of the latest checkpoint, or 0 if there are none
+	 */
+	public int getLatestStepIndex() {
+		return checkpoints.isEmpty() ? 0 : checkpoints.get(checkpoints.size() - 1).stepIndex;
+	}
+
+	/**
+	 * Discard checkpoints with a step index greater than stepIndex, e.g., when the steps after stepIndex are replaced
+	 */
+	public void discardAfter(int stepIndex) {
+		for (int i = checkpoints.size() - 1; i >= 0 && checkpoints.get(i).stepIndex > stepIndex; i--) {
+			remove(i);
+		}
+	}
+
+	public void clear() {
+		for (int i = checkpoints.size() - 1; i >= 0; i--) {
+			remove(i);
+		}
+	}
+
+	private void remove(int i) {
+		Checkpoint checkpoint = checkpoints.remove(i);
+		byteCount -= checkpoint.snapshot.getByteCount();
+		checkpoint.snapshot.recycle();
+	}
+}
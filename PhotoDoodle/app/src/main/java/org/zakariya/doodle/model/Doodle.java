@@ -54,6 +54,16 @@ public abstract class Doodle {
 		}
 	}
 
+	/**
+	 * Invalidate the doodle's view from any thread
+	 */
+	public void postInvalidate() {
+		DoodleView dv = getDoodleView();
+		if (dv != null) {
+			dv.postInvalidate();
+		}
+	}
+
 	public abstract RectF getBoundingRect();
 
 	public void clear() {
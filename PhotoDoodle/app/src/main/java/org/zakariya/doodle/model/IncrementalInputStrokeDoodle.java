@@ -1,7 +1,6 @@
 package org.zakariya.doodle.model;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
@@ -11,19 +10,35 @@ import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+import android.util.SparseArray;
 import android.view.MotionEvent;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
 import org.zakariya.doodle.geom.IncrementalInputStrokeTessellator;
 import org.zakariya.doodle.geom.InputStroke;
 import org.zakariya.doodle.geom.InputStrokeTessellator;
+import org.zakariya.doodle.geom.Outline;
+import org.zakariya.doodle.geom.ParallelStrokeTessellator;
+import org.zakariya.doodle.geom.RectFUtil;
+import org.zakariya.doodle.geom.SpatialGrid;
+import org.zakariya.doodle.geom.TessellationPipeline;
+import org.zakariya.doodle.util.CancellationToken;
+import org.zakariya.doodle.util.FloatBuffer;
+import org.zakariya.doodle.util.FrameScheduler;
+import org.zakariya.doodle.util.LongBuffer;
+import org.zakariya.doodle.util.TiledBitmap;
 
 import java.util.ArrayList;
 
@@ -33,10 +48,17 @@ import icepick.State;
 /**
  * Created by shamyl on 10/14/15.
  */
-public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalInputStrokeTessellator.Listener {
+public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalInputStrokeTessellator.Listener, TessellationPipeline.Listener, TessellationPipeline.Consumer<Brush>, FrameScheduler.Listener {
 	private static final String TAG = "IncInptStrokeDoodle";
 
 	public static final float CANVAS_SIZE = 1024f;
+
+	// a raster checkpoint is taken once this many drawing steps, or this many input points, were added since the last
+	private static final int CHECKPOINT_STEP_INTERVAL = 16;
+	private static final int CHECKPOINT_POINT_BUDGET = 4096;
+
+	// shared by all doodles; tessellates drawing steps in parallel when replaying them
+	private static final ParallelStrokeTessellator replayTessellator = new ParallelStrokeTessellator(Runtime.getRuntime().availableProcessors());
 	private static final RectF CANVAS_RECT = new RectF(-CANVAS_SIZE, -CANVAS_SIZE, CANVAS_SIZE, CANVAS_SIZE);
 
 	public enum ScaleMode {
@@ -53,8 +75,48 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 	private RectF invalidationRect, canvasScreenRect;
 	private IncrementalInputStrokeTessellator incrementalInputStrokeTessellator;
 	private Context context;
-	private Canvas bitmapCanvas;
-	private Bitmap bitmap;
+	private TiledBitmap backingStore;
+	private CheckpointStore checkpoints = new CheckpointStore((int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE));
+	private boolean checkpointScheduled;
+	private boolean touchActive;
+	// undone drawing steps and EraseRecords, most recent last
+	private ArrayList<Object> redoActions = new ArrayList<>();
+
+	// vector erases which can be undone, most recent last, and the one in progress
+	private ArrayList<EraseRecord> eraseHistory = new ArrayList<>();
+	private EraseRecord eraseRecord;
+	private boolean strokeIsVectorErase;
+	private float lastEraseX, lastEraseY;
+	private RectF eraseDirtyRect = new RectF();
+	private int eraseFirstStep;
+	private LongBuffer eraseQueryResults = new LongBuffer();
+
+	// tessellated outlines of committed drawing steps, in canvas coordinates, flattened for stepOutlineScale
+	private StepOutlineCache stepOutlines = new StepOutlineCache((int) (Runtime.getRuntime().maxMemory() / 1024 / 16));
+	private float stepOutlineScale;
+	private Path stepPath = new Path();
+	private RectF stepBounds = new RectF();
+
+	// canvas space index of the strokes of drawingSteps[0, indexedStepCount). Ids are (step index << 32 | stroke index)
+	private SpatialGrid strokeIndex = new SpatialGrid(CANVAS_RECT, 32, 32);
+	private int indexedStepCount;
+	private LongBuffer strokeQueryResults = new LongBuffer();
+
+	// scratch storage for the samples batched into a MotionEvent
+	private float touchSamplePositions[];
+	private long touchSampleTimestamps[];
+
+	// samples, in canvas coordinates, received since the last frame; they're tessellated or erased with once per frame
+	private FloatBuffer pendingSamplePositions = new FloatBuffer(64);
+	private LongBuffer pendingSampleTimestamps = new LongBuffer(32);
+	private FrameScheduler frameScheduler = new FrameScheduler(this);
+
+	// used instead of incrementalInputStrokeTessellator when asynchronousTessellation is set
+	private TessellationPipeline<Brush> tessellationPipeline;
+	private TessellationPipeline.LiveOutline<Brush> lastCollectedLiveOutline;
+	private Path pipelineLivePath = new Path();
+	private Path pipelineStaticPath = new Path();
+	private boolean strokeIsAsynchronous;
 
 	@State
 	int canvasBackgroundColor = 0xFFFFFFFF;
@@ -80,6 +142,12 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 	@State
 	boolean drawDebugPositioningOverlay = false;
 
+	@State
+	boolean asynchronousTessellation = false;
+
+	@State
+	boolean vectorEraser = false;
+
 	@State
 	ArrayList<IntermediateDrawingStep> drawingSteps = new ArrayList<>();
 
@@ -106,10 +174,12 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		Icepick.restoreInstanceState(this, savedInstanceState);
+		clearStrokeIndex();
 	}
 
 	@Override
 	public void onSaveInstanceState(Bundle outState) {
+		flushTessellationPipeline();
 		Icepick.saveInstanceState(this, outState);
 		super.onSaveInstanceState(outState);
 	}
@@ -135,30 +205,39 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 	}
 
 	protected void drawCanvasDecoration(Canvas canvas) {
+		drawCanvasDecoration(canvas, getCanvasScreenRect());
+	}
+
+	protected void drawCanvasDecoration(Canvas canvas, RectF csr) {
 		// render border
 		if (Color.alpha(getCanvasBorderColor()) > 0) {
-			RectF csr = getCanvasScreenRect();
 			canvasDecorationPaint.setColor(canvasBorderColor);
 			canvas.drawRect(csr.left - 1, csr.top - 1, csr.right + 2, csr.bottom + 2, canvasDecorationPaint);
 		}
 
 		if (Color.alpha(getCanvasShadowColor()) > 0 && canvasShadowOffset > 0) {
-			RectF csr = getCanvasScreenRect();
 			canvasDecorationPaint.setColor(canvasShadowColor);
 			canvas.drawRect(csr.left, csr.top + canvasShadowOffset, csr.right, csr.bottom + canvasShadowOffset, canvasDecorationPaint);
 		}
 
 		canvasDecorationPaint.setColor(getCanvasBackgroundColor());
-		canvas.drawRect(getCanvasScreenRect(),canvasDecorationPaint);
+		canvas.drawRect(csr,canvasDecorationPaint);
 	}
 
 	protected void drawStrokes(Canvas canvas) {
 		// render backing store
 		canvas.save();
 		canvas.clipRect(getCanvasScreenRect());
-		canvas.drawBitmap(bitmap, 0, 0, bitmapPaint);
 
-		if (incrementalInputStrokeTessellator != null && !getBrush().isEraser()) {
+		TessellationPipeline.LiveOutline<Brush> liveOutline = collectTessellationPipelineOutput();
+		backingStore.draw(canvas, bitmapPaint);
+
+		if (liveOutline != null && !liveOutline.tag.isEraser() && !liveOutline.outline.isEmpty()) {
+			canvas.save();
+			canvas.concat(canvasToScreenMatrix);
+			canvas.drawPath(pipelineLivePath, liveOutline.tag.getPaint());
+			canvas.restore();
+		} else if (incrementalInputStrokeTessellator != null && !getBrush().isEraser()) {
 			Path path = incrementalInputStrokeTessellator.getLivePath();
 			if (path != null && !path.isEmpty()) {
 				canvas.save();
@@ -207,31 +286,120 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 		drawInvalidationRect(canvas);
 	}
 
+	/**
+	 * Draw the drawing straight into a canvas of a given size, e.g., a thumbnail. Unlike draw(Canvas, int, int),
+	 * the doodle isn't resized, so no backing store is allocated or replayed into, and no view state is touched.
+	 * The strokes are tessellated in parallel for the target scale and drawn as paths. Only drawings with eraser
+	 * steps need an offscreen layer, the size of the target, so erasing doesn't punch through the background.
+	 *
+	 * @param canvas the target canvas
+	 * @param width  width of the target
+	 * @param height height of the target
+	 */
+	public void drawThumbnail(Canvas canvas, int width, int height) {
+		drawThumbnail(canvas, width, height, null);
+	}
+
+	/**
+	 * Draw the drawing into a canvas of a given size, as drawThumbnail(Canvas, int, int), unless canceled
+	 *
+	 * @param canvas the target canvas
+	 * @param width  width of the target
+	 * @param height height of the target
+	 * @param token  if not null, a token which cancels the drawing, checked between drawing steps
+	 * @throws java.util.concurrent.CancellationException if token was canceled. The canvas is left partially drawn
+	 */
+	public void drawThumbnail(Canvas canvas, int width, int height, @Nullable CancellationToken token) {
+		flushTessellationPipeline();
+
+		final float scale = computeCanvasToScreenScale(width, height);
+		Matrix matrix = computeCanvasToScreenMatrix(width, height, scale);
+		RectF csr = new RectF();
+		matrix.mapRect(csr, CANVAS_RECT);
+
+		drawBackground(canvas);
+		drawCanvasDecoration(canvas, csr);
+		drawThumbnailUnderlay(canvas, matrix, csr);
+		drawThumbnailStrokes(canvas, matrix, csr, scale, token);
+	}
+
+	/**
+	 * Called by drawThumbnail to draw content beneath the strokes, e.g., a photo
+	 *
+	 * @param canvas           the target canvas
+	 * @param canvasToScreen   transform from canvas coordinates to the target's
+	 * @param canvasScreenRect the canvas's rect in the target
+	 */
+	protected void drawThumbnailUnderlay(Canvas canvas, Matrix canvasToScreen, RectF canvasScreenRect) {
+	}
+
+	private void drawThumbnailStrokes(Canvas canvas, Matrix canvasToScreen, RectF canvasScreenRect, float scale, @Nullable CancellationToken token) {
+		ArrayList<ParallelStrokeTessellator.Job> jobs = new ArrayList<>();
+		boolean hasEraser = false;
+		for (IntermediateDrawingStep step : drawingSteps) {
+			hasEraser |= step.brush.isEraser();
+			for (InputStroke stroke : step.inputStrokes) {
+				jobs.add(new ParallelStrokeTessellator.Job(stroke, step.brush.getMinWidth(), step.brush.getMaxWidth(), step.brush.getMaxWidthDpPs()));
+			}
+		}
+
+		replayTessellator.tessellate(jobs, InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, scale, token);
+		CancellationToken.check(token);
+
+		int saveCount = canvas.save();
+		canvas.clipRect(canvasScreenRect);
+		if (hasEraser) {
+			canvas.saveLayer(canvasScreenRect, null, Canvas.ALL_SAVE_FLAG);
+		}
+		canvas.concat(canvasToScreen);
+
+		// jobs are in step order
+		Path path = new Path();
+		int job = 0;
+		try {
+			for (IntermediateDrawingStep step : drawingSteps) {
+				CancellationToken.check(token);
+				Paint paint = step.brush.getPaint();
+				for (int i = 0; i < step.inputStrokes.size(); i++) {
+					path.rewind();
+					jobs.get(job++).getResult().toPath(path);
+					canvas.drawPath(path, paint);
+				}
+			}
+		} finally {
+			canvas.restoreToCount(saveCount);
+		}
+	}
+
 	@Override
 	public void resize(int newWidth, int newHeight) {
 		super.resize(newWidth, newHeight);
 
-		if (bitmap != null && newWidth == bitmap.getWidth() && newHeight == bitmap.getHeight()) {
+		if (backingStore != null && newWidth == backingStore.getWidth() && newHeight == backingStore.getHeight()) {
 			return;
 		}
 
-		bitmap = Bitmap.createBitmap(newWidth, newHeight, Bitmap.Config.ARGB_8888);
-		bitmapCanvas = new Canvas(bitmap);
+		// finished strokes become drawing steps, which are redrawn into the new backing store below
+		flushTessellationPipeline();
+
+		if (backingStore == null) {
+			backingStore = new TiledBitmap();
+		}
+		backingStore.resize(newWidth, newHeight);
 
 		// apply canvas to screen matrix
 		screenToCanvasMatrix = computeScreenToCanvasMatrix();
 		canvasToScreenMatrix = computeCanvasToScreenMatrix();
-		bitmapCanvas.setMatrix(canvasToScreenMatrix);
+		backingStore.setMatrix(canvasToScreenMatrix);
 
-		// redraw our drawing into the new bitmap
+		// redraw our drawing into the new backing store
 		renderDrawingSteps();
 	}
 
 	@Override
 	public void onInputStrokeModified(InputStroke inputStroke, int startIndex, int endIndex, RectF rect) {
 		canvasToScreenMatrix.mapRect(rect);
-		invalidationRect = rect;
-		invalidate(rect);
+		frameScheduler.invalidate(rect);
 	}
 
 	@Override
@@ -240,19 +408,87 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 			onNewStaticPathAvailable(path, rect);
 		} else {
 			canvasToScreenMatrix.mapRect(rect);
-			invalidationRect = rect;
-			invalidate(rect);
+			frameScheduler.invalidate(rect);
 		}
 	}
 
 	@Override
 	public void onNewStaticPathAvailable(Path path, RectF rect) {
-		// draw path into bitmapCanvas
-		bitmapCanvas.drawPath(path, getBrush().getPaint());
+		// draw path into the backing store
+		backingStore.drawPath(path, getBrush().getPaint(), !getBrush().isEraser());
 
 		canvasToScreenMatrix.mapRect(rect);
-		invalidationRect = rect;
-		invalidate(rect);
+		frameScheduler.invalidate(rect);
+	}
+
+	@Override
+	public void onFrame(FrameScheduler frameScheduler, long frameTimeNanos) {
+		processPendingSamples();
+	}
+
+	@Override
+	public void onInvalidate(RectF dirtyRect) {
+		invalidationRect = new RectF(dirtyRect);
+		invalidate(dirtyRect);
+	}
+
+	@Override
+	public void onTessellationAvailable() {
+		// called on the pipeline's worker thread
+		postInvalidate();
+	}
+
+	@Override
+	public void onStaticOutline(Brush brush, Outline outline, RectF rect) {
+		pipelineStaticPath.rewind();
+		outline.toPath(pipelineStaticPath);
+		backingStore.drawPath(pipelineStaticPath, rect, brush.getPaint(), !brush.isEraser());
+	}
+
+	@Override
+	public void onStrokeFinished(Brush brush, ArrayList<InputStroke> inputStrokes, boolean hasStaticOutlines) {
+		if (hasStaticOutlines) {
+			addDrawingStep(new IntermediateDrawingStep(brush, inputStrokes));
+		}
+	}
+
+	/**
+	 * Draw static outlines tessellated by the pipeline since the last call into the backing store, and record finished strokes as drawing steps.
+	 * When the live outline has changed, pipelineLivePath is rebuilt from it.
+	 *
+	 * @return the pipeline's current live outline, if any
+	 */
+	protected TessellationPipeline.LiveOutline<Brush> collectTessellationPipelineOutput() {
+		if (tessellationPipeline == null) {
+			return null;
+		}
+
+		// read the live outline first; every static outline preceding it is queued by then
+		TessellationPipeline.LiveOutline<Brush> liveOutline = tessellationPipeline.getLiveOutline();
+		tessellationPipeline.collect(this);
+
+		if (liveOutline != null && liveOutline != lastCollectedLiveOutline) {
+			pipelineLivePath.rewind();
+			liveOutline.outline.toPath(pipelineLivePath);
+
+			// as with onLivePathModified, the eraser is applied to the backing store as it goes
+			if (liveOutline.tag.isEraser()) {
+				backingStore.drawPath(pipelineLivePath, liveOutline.rect, liveOutline.tag.getPaint(), false);
+			}
+		}
+
+		lastCollectedLiveOutline = liveOutline;
+		return liveOutline;
+	}
+
+	/**
+	 * Wait for the tessellation pipeline, if any, to process all published samples, and collect its output
+	 */
+	protected void flushTessellationPipeline() {
+		if (tessellationPipeline != null && backingStore != null) {
+			tessellationPipeline.awaitIdle();
+			collectTessellationPipelineOutput();
+		}
 	}
 
 	@Override
@@ -284,21 +520,266 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 	}
 
 	public void clearDrawing() {
+		flushTessellationPipeline();
 		markDirty();
 		incrementalInputStrokeTessellator = null;
 		drawingSteps.clear();
-		bitmap.eraseColor(0x0);
+		redoActions.clear();
+		eraseHistory.clear();
+		checkpoints.clear();
+		stepOutlines.evictAll();
+		clearStrokeIndex();
+		backingStore.clear();
 		invalidate();
 	}
 
+	/**
+	 * Remove the last drawing step, or revert the last vector erase if it came after that step. The backing store
+	 * is restored from the nearest raster checkpoint at or before the earliest changed step, and only the steps
+	 * after that checkpoint are replayed.
+	 */
 	public void undo() {
-		if (!drawingSteps.isEmpty()) {
-			drawingSteps.remove(drawingSteps.size() - 1);
+		flushTessellationPipeline();
+		if (!eraseHistory.isEmpty() && eraseHistory.get(eraseHistory.size() - 1).stepCount == drawingSteps.size()) {
+			markDirty();
+			EraseRecord record = eraseHistory.remove(eraseHistory.size() - 1);
+			redoActions.add(record);
+			applyEraseRecord(record, true);
+		} else if (!drawingSteps.isEmpty()) {
+			markDirty();
+			IntermediateDrawingStep step = drawingSteps.remove(drawingSteps.size() - 1);
+			redoActions.add(step);
+			if (indexedStepCount > drawingSteps.size()) {
+				strokeIndex.removeFrom((long) drawingSteps.size() << 32);
+				indexedStepCount = drawingSteps.size();
+			}
+
+			// only the tiles under the removed step need repainting
+			renderDrawingSteps(getDrawingStepScreenBounds(step), checkpoints.getNearest(drawingSteps.size()));
+		}
+	}
+
+	public boolean canUndo() {
+		return !drawingSteps.isEmpty() || !eraseHistory.isEmpty();
+	}
+
+	/**
+	 * Restore the last drawing step, or reapply the last vector erase, reverted by undo(). Adding a new stroke discards
+	 * the actions available to redo.
+	 */
+	public void redo() {
+		flushTessellationPipeline();
+		if (!redoActions.isEmpty() && backingStore != null) {
+			markDirty();
+			Object action = redoActions.remove(redoActions.size() - 1);
+			if (action instanceof EraseRecord) {
+				EraseRecord record = (EraseRecord) action;
+				eraseHistory.add(record);
+				applyEraseRecord(record, false);
+			} else {
+				IntermediateDrawingStep step = (IntermediateDrawingStep) action;
+				drawingSteps.add(step);
+				renderDrawingStep(step);
+				invalidate();
+			}
 		}
+	}
+
+	public boolean canRedo() {
+		return !redoActions.isEmpty();
+	}
+
+	/**
+	 * Record a finished stroke as a drawing step, discarding redo history and any checkpoints which depended on it
+	 */
+	protected void addDrawingStep(IntermediateDrawingStep step) {
+		discardRedoActions();
+		drawingSteps.add(step);
+		scheduleCheckpoint();
+	}
+
+	private void discardRedoActions() {
+		if (!redoActions.isEmpty()) {
+			redoActions.clear();
+			checkpoints.discardAfter(drawingSteps.size());
+		}
+	}
+
+	/**
+	 * Replace a committed drawing step, e.g., with a version a vector erase has cut strokes from. Index entries and
+	 * checkpoints depending on the old step are updated or dropped; the caller is responsible for repainting.
+	 */
+	private void replaceDrawingStep(int index, IntermediateDrawingStep step) {
+		drawingSteps.set(index, step);
+		if (index < indexedStepCount) {
+			strokeIndex.removeRange((long) index << 32, (long) (index + 1) << 32);
+			indexDrawingStep(index);
+		}
+		checkpoints.discardAfter(index);
+	}
+
+	/**
+	 * Swap the steps changed by a vector erase to their state before or after it, and repaint
+	 */
+	private void applyEraseRecord(EraseRecord record, boolean revert) {
+		RectF dirty = new RectF();
+		int firstStep = Integer.MAX_VALUE;
+		for (int i = 0; i < record.stepIndices.size(); i++) {
+			final int index = record.stepIndices.get(i);
+			IntermediateDrawingStep before = record.before.get(i);
+			dirty.union(getDrawingStepScreenBounds(before));
+			replaceDrawingStep(index, revert ? before : record.after.get(i));
+			firstStep = Math.min(firstStep, index);
+		}
+
+		if (!dirty.isEmpty()) {
+			renderDrawingSteps(dirty, checkpoints.getNearest(firstStep));
+		}
+	}
+
+	/**
+	 * Cut the parts of the committed strokes under it lying within the eraser's radius of segment a-b.
+	 * The spatial index limits the work to the strokes whose bounds the segment touches. The area to repaint is
+	 * accumulated into eraseDirtyRect; see flushVectorErase()
+	 */
+	private void vectorErase(float ax, float ay, float bx, float by) {
+		final float radius = getBrush().getMaxWidth() * 0.5f;
+		RectF region = RectFUtil.containing(ax, ay, bx, by);
+		region.inset(-radius, -radius);
+
+		final LongBuffer hits = getStrokeIndex().query(region, eraseQueryResults);
+		final long hitIds[] = hits.getBackingArray();
+		final RectF strokeBounds = new RectF();
+		for (int i = 0, n = hits.size(); i < n; ) {
+			final int stepIndex = (int) (hitIds[i] >>> 32);
+			IntermediateDrawingStep step = drawingSteps.get(stepIndex);
+
+			// cut each hit stroke of this step; hits are sorted by step, then stroke
+			SparseArray<ArrayList<InputStroke>> cutStrokes = null;
+			for (; i < n && (int) (hitIds[i] >>> 32) == stepIndex; i++) {
+				if (step.brush.isEraser()) {
+					// raster eraser steps are left alone
+					continue;
+				}
 
+				final int strokeIndex = (int) hitIds[i];
+				final InputStroke stroke = step.inputStrokes.get(strokeIndex);
+				ArrayList<InputStroke> pieces = stroke.cut(ax, ay, bx, by, radius);
+				if (pieces == null) {
+					continue;
+				}
+
+				if (cutStrokes == null) {
+					cutStrokes = new SparseArray<>();
+				}
+				cutStrokes.put(strokeIndex, pieces);
+
+				// the stroke as drawn, padded as indexDrawingStep() does, rather than tessellating the step just to measure it
+				final float pad = step.brush.getMaxWidth() + 1;
+				strokeBounds.set(stroke.computeBoundingRect());
+				strokeBounds.inset(-pad, -pad);
+				eraseDirtyRect.union(strokeBounds);
+			}
+
+			if (cutStrokes != null) {
+				ArrayList<InputStroke> replacement = new ArrayList<>();
+				for (int j = 0; j < step.inputStrokes.size(); j++) {
+					ArrayList<InputStroke> pieces = cutStrokes.get(j);
+					if (pieces != null) {
+						replacement.addAll(pieces);
+					} else {
+						replacement.add(step.inputStrokes.get(j));
+					}
+				}
+
+				IntermediateDrawingStep cut = new IntermediateDrawingStep(step.brush, replacement);
+				eraseRecord.record(stepIndex, step, cut);
+				replaceDrawingStep(stepIndex, cut);
+				eraseFirstStep = Math.min(eraseFirstStep, stepIndex);
+			}
+		}
+	}
+
+	/**
+	 * Repaint the area changed by vectorErase() calls since the last flush
+	 */
+	private void flushVectorErase() {
+		if (!eraseDirtyRect.isEmpty()) {
+			canvasToScreenMatrix.mapRect(eraseDirtyRect);
+			eraseDirtyRect.inset(-1, -1);
+			renderDrawingSteps(eraseDirtyRect, checkpoints.getNearest(eraseFirstStep));
+		}
+
+		eraseDirtyRect.setEmpty();
+		eraseFirstStep = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Replace the drawing steps wholesale, e.g., when loading a document, and render them
+	 */
+	protected void setDrawingSteps(ArrayList<IntermediateDrawingStep> drawingSteps) {
+		this.drawingSteps = drawingSteps;
+		redoActions.clear();
+		eraseHistory.clear();
+		stepOutlines.evictAll();
+		clearStrokeIndex();
 		renderDrawingSteps();
 	}
 
+	/**
+	 * Check for a due checkpoint once the UI thread is idle, so the snapshot is taken after the step's frame rather than on the input path
+	 */
+	private void scheduleCheckpoint() {
+		if (checkpointScheduled) {
+			return;
+		}
+
+		checkpointScheduled = true;
+		Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+			@Override
+			public boolean queueIdle() {
+				checkpointScheduled = false;
+				takeCheckpointIfDue();
+				return false;
+			}
+		});
+	}
+
+	private void takeCheckpointIfDue() {
+		// mid-stroke, the backing store holds part of a step which isn't committed yet; the next committed step reschedules
+		if (touchActive || !isCheckpointDue()) {
+			return;
+		}
+
+		// every stroke is finished, so this collects the last of the pipeline's output without waiting on new samples
+		flushTessellationPipeline();
+		checkpoints.add(drawingSteps.size(), backingStore.snapshot());
+	}
+
+	/**
+	 * @return true if enough drawing steps, or input points, were added since the last checkpoint that replaying them on undo would be slow
+	 */
+	private boolean isCheckpointDue() {
+		if (backingStore == null) {
+			return false;
+		}
+
+		final int count = drawingSteps.size();
+		final int latest = checkpoints.getLatestStepIndex();
+		boolean due = count - latest >= CHECKPOINT_STEP_INTERVAL;
+		if (!due && count > latest) {
+			int points = 0;
+			for (int i = latest; i < count; i++) {
+				for (InputStroke stroke : drawingSteps.get(i).inputStrokes) {
+					points += stroke.size();
+				}
+			}
+			due = points >= CHECKPOINT_POINT_BUDGET;
+		}
+
+		return due;
+	}
+
 	public Context getContext() {
 		return context;
 	}
@@ -356,6 +837,42 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 		invalidate();
 	}
 
+	/**
+	 * @return the scheduler which coalesces touch samples and invalidation per display frame, for its stats
+	 */
+	public FrameScheduler getFrameScheduler() {
+		return frameScheduler;
+	}
+
+	public boolean isAsynchronousTessellation() {
+		return asynchronousTessellation;
+	}
+
+	/**
+	 * If true, strokes are tessellated on a worker thread by a TessellationPipeline instead of on the UI thread
+	 * as touch events arrive. Takes effect with the next stroke.
+	 *
+	 * @param asynchronousTessellation if true, tessellate asynchronously
+	 */
+	public void setAsynchronousTessellation(boolean asynchronousTessellation) {
+		this.asynchronousTessellation = asynchronousTessellation;
+	}
+
+	public boolean isVectorEraser() {
+		return vectorEraser;
+	}
+
+	/**
+	 * If true, eraser brushes cut the ink they pass over out of the committed strokes, rather than being stored
+	 * as drawing steps replayed with PorterDuff.Mode.CLEAR. Erased ink then costs nothing to replay or store.
+	 * Takes effect with the next stroke.
+	 *
+	 * @param vectorEraser if true, erase geometrically
+	 */
+	public void setVectorEraser(boolean vectorEraser) {
+		this.vectorEraser = vectorEraser;
+	}
+
 	public boolean isDrawDebugPositioningOverlay() {
 		return drawDebugPositioningOverlay;
 	}
@@ -366,28 +883,137 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 
 	@Override
 	protected void onTouchEventBegin(@NonNull MotionEvent event) {
-		incrementalInputStrokeTessellator = new IncrementalInputStrokeTessellator(this);
+		// a gesture which ended without a frame, e.g., canceled or detached, may have left samples behind
+		pendingSamplePositions.clear();
+		pendingSampleTimestamps.clear();
+
+		touchActive = true;
+
+		strokeIsVectorErase = vectorEraser && getBrush().isEraser();
+		strokeIsAsynchronous = asynchronousTessellation && !strokeIsVectorErase;
+		if (strokeIsVectorErase) {
+			// vector erasing cuts committed strokes directly; the eraser stroke itself isn't tessellated or stored
+			flushTessellationPipeline();
+			incrementalInputStrokeTessellator = null;
+			discardRedoActions();
+			eraseRecord = new EraseRecord(drawingSteps.size());
+			eraseDirtyRect.setEmpty();
+			eraseFirstStep = Integer.MAX_VALUE;
+		} else if (strokeIsAsynchronous) {
+			incrementalInputStrokeTessellator = null;
+			if (tessellationPipeline == null) {
+				tessellationPipeline = new TessellationPipeline<>(this);
+			}
 
-		float[] canvasPoint = {event.getX(), event.getY()};
-		screenToCanvasMatrix.mapPoints(canvasPoint);
+			tessellationPipeline.begin(getBrush().copy(), getInputStrokeOptimizationThreshold(), getStrokeMinWidth(), getStrokeMaxWidth(), getStrokeMaxVelDPps(),
+					InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, canvasToScreenScale);
+		} else {
+			incrementalInputStrokeTessellator = new IncrementalInputStrokeTessellator(this);
+			incrementalInputStrokeTessellator.setSubdivisionTolerance(InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, canvasToScreenScale);
+		}
 
-		incrementalInputStrokeTessellator.add(canvasPoint[0], canvasPoint[1]);
+		addTouchEventSamples(event);
 	}
 
 
 	protected void onTouchEventMove(@NonNull MotionEvent event) {
-		float[] canvasPoint = {event.getX(), event.getY()};
-		screenToCanvasMatrix.mapPoints(canvasPoint);
+		addTouchEventSamples(event);
+	}
+
+	/**
+	 * Add the samples Android batched into event - its historical samples followed by its current sample - to the
+	 * current stroke, stamped with their event times. The positions are mapped to canvas space in one go, and the
+	 * stroke's velocities and live path are updated once for the whole batch.
+	 *
+	 * @param event the touch event
+	 */
+	private void addTouchEventSamples(@NonNull MotionEvent event) {
+		final int historySize = event.getHistorySize();
+		final int count = historySize + 1;
+		if (touchSampleTimestamps == null || touchSampleTimestamps.length < count) {
+			touchSamplePositions = new float[count * 2];
+			touchSampleTimestamps = new long[count];
+		}
 
-		//Log.i(TAG, "touch move canvas coord: " + canvasPoint[0] + ", " + canvasPoint[1]);
-		incrementalInputStrokeTessellator.add(canvasPoint[0], canvasPoint[1]);
+		for (int i = 0; i < historySize; i++) {
+			touchSamplePositions[i * 2] = event.getHistoricalX(i);
+			touchSamplePositions[i * 2 + 1] = event.getHistoricalY(i);
+			touchSampleTimestamps[i] = event.getHistoricalEventTime(i);
+		}
+
+		touchSamplePositions[historySize * 2] = event.getX();
+		touchSamplePositions[historySize * 2 + 1] = event.getY();
+		touchSampleTimestamps[historySize] = event.getEventTime();
+
+		screenToCanvasMatrix.mapPoints(touchSamplePositions, 0, touchSamplePositions, 0, count);
+
+		if (strokeIsAsynchronous) {
+			// the pipeline tessellates on its own thread, so hand samples over right away
+			tessellationPipeline.add(touchSamplePositions, touchSampleTimestamps, count);
+		} else {
+			final int pending = pendingSampleTimestamps.size();
+			System.arraycopy(touchSamplePositions, 0, pendingSamplePositions.resize(pending * 2 + count * 2), pending * 2, count * 2);
+			System.arraycopy(touchSampleTimestamps, 0, pendingSampleTimestamps.resize(pending + count), pending, count);
+		}
+
+		frameScheduler.addSamples(count);
+	}
+
+	/**
+	 * Tessellate, or erase with, the samples received since the last frame, in one batch
+	 */
+	private void processPendingSamples() {
+		final int count = pendingSampleTimestamps.size();
+		if (count == 0) {
+			return;
+		}
+
+		final float positions[] = pendingSamplePositions.getBackingArray();
+		if (strokeIsVectorErase) {
+			for (int i = 0; i < count; i++) {
+				final float x = positions[i * 2];
+				final float y = positions[i * 2 + 1];
+				if (eraseRecord.sampleCount++ == 0) {
+					vectorErase(x, y, x, y);
+				} else {
+					vectorErase(lastEraseX, lastEraseY, x, y);
+				}
+				lastEraseX = x;
+				lastEraseY = y;
+			}
+			flushVectorErase();
+		} else if (incrementalInputStrokeTessellator != null) {
+			incrementalInputStrokeTessellator.add(positions, pendingSampleTimestamps.getBackingArray(), count);
+		}
+
+		pendingSamplePositions.clear();
+		pendingSampleTimestamps.clear();
 	}
 
 
 	protected void onTouchEventEnd(@NonNull MotionEvent event) {
+		// process the samples still waiting for a frame, since the stroke is committed below
+		frameScheduler.flush();
+		touchActive = false;
+
+		if (strokeIsVectorErase) {
+			if (!eraseRecord.isEmpty()) {
+				markDirty();
+				eraseHistory.add(eraseRecord);
+			}
+			eraseRecord = null;
+			return;
+		}
+
+		if (strokeIsAsynchronous) {
+			// the drawing step is added when the pipeline's output is collected
+			tessellationPipeline.finish();
+			return;
+		}
+
 		incrementalInputStrokeTessellator.finish();
 		if (!incrementalInputStrokeTessellator.getStaticPaths().isEmpty()) {
-			drawingSteps.add(new IntermediateDrawingStep(getBrush().copy(), incrementalInputStrokeTessellator.getInputStrokes()));
+			addDrawingStep(new IntermediateDrawingStep(getBrush().copy(), incrementalInputStrokeTessellator.getInputStrokes()));
 		}
 	}
 
@@ -430,48 +1056,403 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 	}
 
 	protected Matrix computeCanvasToScreenMatrix() {
-		float width = getWidth() - 2*padding;
-		float height = getHeight() - 2*padding;
-		final float midX = padding + width * 0.5f;
-		final float midY = padding + height * 0.5f;
+		canvasToScreenScale = computeCanvasToScreenScale(getWidth(), getHeight());
+		Matrix matrix = computeCanvasToScreenMatrix(getWidth(), getHeight(), canvasToScreenScale);
+
+		canvasScreenRect = new RectF();
+		matrix.mapRect(canvasScreenRect,CANVAS_RECT);
+
+		return matrix;
+	}
+
+	protected float computeCanvasToScreenScale(int screenWidth, int screenHeight) {
+		float width = screenWidth - 2*padding;
+		float height = screenHeight - 2*padding;
 		final float maxHalfDim = Math.max(width, height) * 0.5f;
 		final float minHalfDim = Math.min(width, height) * 0.5f;
 
 		switch(getScaleMode()){
-			case FIT:
-				canvasToScreenScale = minHalfDim / CANVAS_SIZE;
-				break;
 			case FILL:
-				canvasToScreenScale = maxHalfDim / CANVAS_SIZE;
+				return maxHalfDim / CANVAS_SIZE;
+			case FIT:
+			default:
+				return minHalfDim / CANVAS_SIZE;
 		}
+	}
+
+	protected Matrix computeCanvasToScreenMatrix(int screenWidth, int screenHeight, float scale) {
+		float width = screenWidth - 2*padding;
+		float height = screenHeight - 2*padding;
+		final float midX = padding + width * 0.5f;
+		final float midY = padding + height * 0.5f;
 
 		Matrix matrix = new Matrix();
 		matrix.preTranslate(midX, midY);
-		matrix.preScale(canvasToScreenScale,canvasToScreenScale);
-
-		canvasScreenRect = new RectF();
-		matrix.mapRect(canvasScreenRect,CANVAS_RECT);
+		matrix.preScale(scale,scale);
 
 		return matrix;
 	}
 
+	/**
+	 * Repaint the whole backing store from the drawing steps, discarding raster checkpoints
+	 */
 	protected void renderDrawingSteps() {
-		if (bitmap != null) {
-			bitmap.eraseColor(0x0);
+		checkpoints.clear();
+		renderDrawingSteps(null, null);
+	}
+
+	/**
+	 * Repaint a region of the backing store from the drawing steps
+	 *
+	 * @param rect       the region, in screen coordinates, or null to repaint everything. Only the tiles under the region are redrawn
+	 * @param checkpoint if not null, the region is restored from the checkpoint and only the steps after it are replayed
+	 */
+	protected void renderDrawingSteps(@Nullable RectF rect, @Nullable CheckpointStore.Checkpoint checkpoint) {
+		renderDrawingSteps(rect, checkpoint, null);
+	}
 
+	/**
+	 * Repaint a region of the backing store from the drawing steps, as renderDrawingSteps(RectF, Checkpoint), unless canceled.
+	 * If canceled, the region is left dirty, so the next repaint of any region redraws it.
+	 *
+	 * @param rect       the region, in screen coordinates, or null to repaint everything
+	 * @param checkpoint if not null, the region is restored from the checkpoint and only the steps after it are replayed
+	 * @param token      if not null, a token which cancels the repaint, checked between drawing steps
+	 * @throws java.util.concurrent.CancellationException if token was canceled
+	 */
+	protected void renderDrawingSteps(@Nullable RectF rect, @Nullable CheckpointStore.Checkpoint checkpoint, @Nullable CancellationToken token) {
+		if (backingStore != null) {
+			backingStore.invalidate(rect);
+			RectF dirtyBounds = backingStore.getDirtyBounds(new RectF());
+			backingStore.beginRedraw(checkpoint != null ? checkpoint.getSnapshot() : null);
+
+			boolean completed = false;
+			try {
+				// only strokes overlapping the repainted tiles, which may be fewer than all visible, need replaying
+				final int start = checkpoint != null ? checkpoint.getStepIndex() : 0;
+				final int end = drawingSteps.size();
+				RectF region = new RectF(dirtyBounds);
+				screenToCanvasMatrix.mapRect(region);
+				final LongBuffer hits = getStrokeIndex().query(region, strokeQueryResults);
+				if (region.isEmpty()) {
+					hits.clear();
+				}
+				final long hitIds[] = hits.getBackingArray();
+
+				boolean needed[] = new boolean[end - start];
+				for (int i = 0, n = hits.size(); i < n; i++) {
+					final int step = (int) (hitIds[i] >>> 32);
+					if (step >= start) {
+						needed[step - start] = true;
+					}
+				}
+
+				// tessellate in parallel, then composite in order; hits are sorted by step, then stroke
+				Outline outlines[][] = getDrawingStepOutlines(start, end, needed, token);
+				int lastStep = -1;
+				for (int i = 0, n = hits.size(); i < n; i++) {
+					final int step = (int) (hitIds[i] >>> 32);
+					if (step >= start) {
+						if (step != lastStep) {
+							CancellationToken.check(token);
+							lastStep = step;
+						}
+						renderOutline(drawingSteps.get(step), outlines[step - start][(int) hitIds[i]]);
+					}
+				}
+				completed = true;
+			} finally {
+				backingStore.endRedraw();
+				if (!completed) {
+					// the tiles hold a partial replay
+					backingStore.invalidate(dirtyBounds);
+				}
+			}
+			invalidate();
+		}
+	}
+
+	private void renderDrawingStep(IntermediateDrawingStep step) {
+		renderDrawingStep(step, getDrawingStepOutlines(step));
+	}
+
+	private void renderDrawingStep(IntermediateDrawingStep step, Outline outlines[]) {
+		for (Outline outline : outlines) {
+			renderOutline(step, outline);
+		}
+	}
+
+	private void renderOutline(IntermediateDrawingStep step, Outline outline) {
+		stepPath.rewind();
+		outline.toPath(stepPath);
+		backingStore.drawPath(stepPath, outline.getBounds(stepBounds), step.brush.getPaint(), !step.brush.isEraser());
+	}
+
+	/**
+	 * @return the stroke index, after adding any drawing steps appended since it was last used
+	 */
+	protected SpatialGrid getStrokeIndex() {
+		for (int i = indexedStepCount, n = drawingSteps.size(); i < n; i++) {
+			indexDrawingStep(i);
+		}
+
+		indexedStepCount = drawingSteps.size();
+		return strokeIndex;
+	}
+
+	private void indexDrawingStep(int i) {
+		final RectF bounds = new RectF();
+		IntermediateDrawingStep step = drawingSteps.get(i);
+
+		// pad the points' bounds generously, since the outline's curves may bulge past the stroke's radius
+		final float pad = step.brush.getMaxWidth() + 1;
+		for (int j = 0; j < step.inputStrokes.size(); j++) {
+			InputStroke stroke = step.inputStrokes.get(j);
+			if (stroke.isEmpty()) {
+				continue;
+			}
+
+			bounds.set(stroke.computeBoundingRect());
+			bounds.inset(-pad, -pad);
+			strokeIndex.insert(((long) i << 32) | j, bounds);
+		}
+	}
+
+	private void clearStrokeIndex() {
+		strokeIndex.clear();
+		indexedStepCount = 0;
+	}
+
+	/**
+	 * Get the tessellated outlines of a drawing step's strokes, from the cache if possible. Committed strokes don't
+	 * change, so a step is only retessellated if it was evicted, or the canvas to screen scale changed.
+	 *
+	 * @param step a drawing step
+	 * @return an outline, in canvas coordinates, for each of the step's strokes
+	 */
+	protected Outline[] getDrawingStepOutlines(IntermediateDrawingStep step) {
+		validateStepOutlineCache();
+
+		Outline outlines[] = stepOutlines.get(step);
+		if (outlines == null) {
 			InputStrokeTessellator tess = new InputStrokeTessellator();
-			for (IntermediateDrawingStep step : drawingSteps) {
-				tess.setMinWidth(step.brush.getMinWidth());
-				tess.setMaxWidth(step.brush.getMaxWidth());
-				tess.setMaxVelDPps(step.brush.getMaxWidthDpPs());
+			tess.setSubdivisionTolerance(InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, canvasToScreenScale);
+			tess.setMinWidth(step.brush.getMinWidth());
+			tess.setMaxWidth(step.brush.getMaxWidth());
+			tess.setMaxVelDPps(step.brush.getMaxWidthDpPs());
+
+			outlines = new Outline[step.inputStrokes.size()];
+			for (int i = 0; i < outlines.length; i++) {
+				InputStroke stroke = step.inputStrokes.get(i);
+				tess.setInputStroke(stroke);
+				outlines[i] = tess.tessellate(0, stroke.size() - 1, false, true, true, tess.getOutline()).copy();
+			}
+			tess.release();
+
+			stepOutlines.put(step, outlines);
+		}
+
+		return outlines;
+	}
+
+	/**
+	 * Get the tessellated outlines of a range of drawing steps. Steps missing from the cache are tessellated
+	 * in parallel by the replay tessellator. See getDrawingStepOutlines(IntermediateDrawingStep)
+	 *
+	 * @param start index of first drawing step
+	 * @param end   index after last drawing step
+	 * @return the outlines of each step in the range
+	 */
+	protected Outline[][] getDrawingStepOutlines(int start, int end) {
+		return getDrawingStepOutlines(start, end, null);
+	}
+
+	/**
+	 * Get the tessellated outlines of some of a range of drawing steps. See getDrawingStepOutlines(int, int)
+	 *
+	 * @param start  index of first drawing step
+	 * @param end    index after last drawing step
+	 * @param needed if not null, needed[i - start] says whether step i's outlines are wanted
+	 * @return the outlines of each wanted step in the range; null for unwanted steps
+	 */
+	protected Outline[][] getDrawingStepOutlines(int start, int end, @Nullable boolean needed[]) {
+		return getDrawingStepOutlines(start, end, needed, null);
+	}
+
+	/**
+	 * Get the tessellated outlines of some of a range of drawing steps, unless canceled. See getDrawingStepOutlines(int, int, boolean[])
+	 *
+	 * @param start  index of first drawing step
+	 * @param end    index after last drawing step
+	 * @param needed if not null, needed[i - start] says whether step i's outlines are wanted
+	 * @param token  if not null, a token which cancels the tessellation
+	 * @return the outlines of each wanted step in the range; null for unwanted steps
+	 * @throws java.util.concurrent.CancellationException if token was canceled
+	 */
+	protected Outline[][] getDrawingStepOutlines(int start, int end, @Nullable boolean needed[], @Nullable CancellationToken token) {
+		validateStepOutlineCache();
+
+		Outline outlines[][] = new Outline[end - start][];
+		ArrayList<ParallelStrokeTessellator.Job> jobs = new ArrayList<>();
+		for (int i = start; i < end; i++) {
+			if (needed != null && !needed[i - start]) {
+				continue;
+			}
 
+			IntermediateDrawingStep step = drawingSteps.get(i);
+			outlines[i - start] = stepOutlines.get(step);
+			if (outlines[i - start] == null) {
 				for (InputStroke stroke : step.inputStrokes) {
-					tess.setInputStroke(stroke);
-					Path path = tess.tessellate(false, true, true);
-					bitmapCanvas.drawPath(path, step.brush.getPaint());
+					jobs.add(new ParallelStrokeTessellator.Job(stroke, step.brush.getMinWidth(), step.brush.getMaxWidth(), step.brush.getMaxWidthDpPs()));
 				}
 			}
-			invalidate();
+		}
+
+		if (jobs.isEmpty()) {
+			return outlines;
+		}
+
+		replayTessellator.tessellate(jobs, InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, canvasToScreenScale, token);
+
+		// a canceled batch has gaps, which mustn't be cached
+		CancellationToken.check(token);
+
+		// jobs are in step order
+		int job = 0;
+		for (int i = start; i < end; i++) {
+			if (outlines[i - start] == null && (needed == null || needed[i - start])) {
+				IntermediateDrawingStep step = drawingSteps.get(i);
+				Outline tessellated[] = new Outline[step.inputStrokes.size()];
+				for (int j = 0; j < tessellated.length; j++) {
+					tessellated[j] = jobs.get(job++).getResult();
+				}
+
+				outlines[i - start] = tessellated;
+				stepOutlines.put(step, tessellated);
+			}
+		}
+
+		return outlines;
+	}
+
+	private void validateStepOutlineCache() {
+		if (stepOutlineScale != canvasToScreenScale) {
+			// the outlines are flattened to a tolerance in screen units
+			stepOutlines.evictAll();
+			stepOutlineScale = canvasToScreenScale;
+		}
+	}
+
+	/**
+	 * Set how many threads, including the calling thread, tessellate drawing steps when a drawing is replayed, e.g.,
+	 * when it's loaded or resized. Defaults to the number of available processors.
+	 *
+	 * @param parallelism number of threads; 1 tessellates on the calling thread alone
+	 */
+	public static void setReplayParallelism(int parallelism) {
+		replayTessellator.setParallelism(parallelism);
+	}
+
+	public static int getReplayParallelism() {
+		return replayTessellator.getParallelism();
+	}
+
+	/**
+	 * @param step a drawing step
+	 * @return bounds of the step's tessellated strokes, in screen coordinates
+	 */
+	protected RectF getDrawingStepScreenBounds(IntermediateDrawingStep step) {
+		RectF bounds = new RectF();
+		RectF strokeBounds = new RectF();
+		for (Outline outline : getDrawingStepOutlines(step)) {
+			bounds.union(outline.getBounds(strokeBounds));
+		}
+
+		canvasToScreenMatrix.mapRect(bounds);
+
+		// allow for antialiasing
+		bounds.inset(-1, -1);
+		return bounds;
+	}
+
+	/**
+	 * Tessellate the drawing without rendering it, to see the vertex count and flattening error a given subdivision
+	 * tolerance and scale would produce. Useful for tuning InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE.
+	 *
+	 * @param tolerance max deviation of the flattened outlines, in rendered units
+	 * @param scale     scale from canvas units to rendered units, e.g., canvasToScreenScale, or a thumbnail's scale
+	 * @return tally of curves, vertices and max flattening error
+	 */
+	public InputStrokeTessellator.Report getTessellationReport(float tolerance, float scale) {
+		flushTessellationPipeline();
+
+		InputStrokeTessellator tess = new InputStrokeTessellator();
+		tess.setSubdivisionTolerance(tolerance, scale);
+		for (IntermediateDrawingStep step : drawingSteps) {
+			tess.setMinWidth(step.brush.getMinWidth());
+			tess.setMaxWidth(step.brush.getMaxWidth());
+			tess.setMaxVelDPps(step.brush.getMaxWidthDpPs());
+
+			for (InputStroke stroke : step.inputStrokes) {
+				tess.setInputStroke(stroke);
+				tess.tessellate(false, true, true);
+			}
+		}
+
+		tess.release();
+		return tess.getReport();
+	}
+
+	/**
+	 * The drawing steps a vector erase changed, with their versions before and after, so it can be undone and redone.
+	 * Erasing doesn't add a drawing step, so stepCount records how many steps there were, to order erases
+	 * relative to drawing steps in the undo history.
+	 */
+	private static final class EraseRecord {
+		final int stepCount;
+		final ArrayList<Integer> stepIndices = new ArrayList<>();
+		final ArrayList<IntermediateDrawingStep> before = new ArrayList<>();
+		final ArrayList<IntermediateDrawingStep> after = new ArrayList<>();
+		int sampleCount;
+
+		EraseRecord(int stepCount) {
+			this.stepCount = stepCount;
+		}
+
+		/**
+		 * Record that the step at index was replaced; the first replacement of a step keeps its original version
+		 */
+		void record(int index, IntermediateDrawingStep replaced, IntermediateDrawingStep replacement) {
+			int i = stepIndices.indexOf(index);
+			if (i < 0) {
+				stepIndices.add(index);
+				before.add(replaced);
+				after.add(replacement);
+			} else {
+				after.set(i, replacement);
+			}
+		}
+
+		boolean isEmpty() {
+			return stepIndices.isEmpty();
+		}
+	}
+
+	/**
+	 * LRU cache of drawing step outlines, sized in kilobytes
+	 */
+	private static final class StepOutlineCache extends LruCache<IntermediateDrawingStep, Outline[]> {
+		public StepOutlineCache(int maxSizeKb) {
+			super(maxSizeKb);
+		}
+
+		@Override
+		protected int sizeOf(IntermediateDrawingStep key, Outline[] value) {
+			int bytes = 0;
+			for (Outline outline : value) {
+				bytes += outline.getByteCount();
+			}
+			return Math.max(bytes / 1024, 1);
 		}
 	}
 
@@ -548,5 +1529,32 @@ public class IncrementalInputStrokeDoodle extends Doodle implements IncrementalI
 					throw new IllegalArgumentException("Unsupported " + this.getClass().getName() + " serialization version: " + serializationVersion);
 			}
 		}
+
+		/**
+		 * Serializer which checks a CancellationToken before each step is read, so a load may be canceled between
+		 * steps; see PhotoDoodle.inflate. It reads and writes the same data as the KryoSerializable implementation.
+		 * Register it with Kryo.addDefaultSerializer.
+		 */
+		static final class CancellableSerializer extends Serializer<IntermediateDrawingStep> {
+			private final CancellationToken token;
+
+			CancellableSerializer(@Nullable CancellationToken token) {
+				this.token = token;
+			}
+
+			@Override
+			public void write(Kryo kryo, Output output, IntermediateDrawingStep step) {
+				step.write(kryo, output);
+			}
+
+			@Override
+			public IntermediateDrawingStep read(Kryo kryo, Input input, Class<IntermediateDrawingStep> type) {
+				CancellationToken.check(token);
+				IntermediateDrawingStep step = new IntermediateDrawingStep();
+				kryo.reference(step);
+				step.read(kryo, input);
+				return step;
+			}
+		}
 	}
 }
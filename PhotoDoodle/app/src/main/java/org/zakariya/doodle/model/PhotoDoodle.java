@@ -9,6 +9,7 @@ import android.graphics.Paint;
 import android.graphics.PointF;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -18,6 +19,8 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
+import org.zakariya.doodle.util.CancellationToken;
+
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.InvalidObjectException;
@@ -38,8 +41,15 @@ public class PhotoDoodle extends IncrementalInputStrokeDoodle {
 	}
 
 	static final String TAG = "PhotoDoodle";
+
+	// original format: drawing steps, then photo
 	static final int COOKIE = 0xD00D;
 
+	// versioned format: version, optional preview image, then as COOKIE
+	static final int VERSIONED_COOKIE = 0xD00E;
+	static final int SERIALIZATION_VERSION = 1;
+	static final int PREVIEW_JPEG_QUALITY = 90;
+
 	@State
 	byte[] photoJpegData;
 
@@ -102,10 +112,14 @@ public class PhotoDoodle extends IncrementalInputStrokeDoodle {
 	}
 
 	protected void drawPhoto(Canvas canvas) {
+		drawPhoto(canvas, canvasToScreenMatrix, getCanvasScreenRect(), photoMatrix);
+	}
+
+	protected void drawPhoto(Canvas canvas, Matrix canvasToScreen, RectF canvasScreenRect, Matrix photoMatrix) {
 		if (photo != null) {
 			canvas.save();
-			canvas.clipRect(getCanvasScreenRect());
-			canvas.concat(canvasToScreenMatrix);
+			canvas.clipRect(canvasScreenRect);
+			canvas.concat(canvasToScreen);
 			canvas.concat(photoMatrix);
 			canvas.drawBitmap(photo, 0, 0, photoPaint);
 
@@ -133,6 +147,15 @@ public class PhotoDoodle extends IncrementalInputStrokeDoodle {
 		drawInvalidationRect(canvas);
 	}
 
+	@Override
+	protected void drawThumbnailUnderlay(Canvas canvas, Matrix canvasToScreen, RectF canvasScreenRect) {
+		if (photo != null) {
+			Matrix thumbnailPhotoMatrix = new Matrix();
+			computePhotoMatrix(thumbnailPhotoMatrix);
+			drawPhoto(canvas, canvasToScreen, canvasScreenRect, thumbnailPhotoMatrix);
+		}
+	}
+
 	@Override
 	protected void onTouchEventBegin(@NonNull MotionEvent event) {
 		switch (getInteractionMode()) {
@@ -147,10 +170,35 @@ public class PhotoDoodle extends IncrementalInputStrokeDoodle {
 	}
 
 	public void serialize(OutputStream out) {
+		serialize(out, 0, 0);
+	}
+
+	/**
+	 * Serialize the doodle, with a preview image in the header which readPreview can read without deserializing the rest
+	 *
+	 * @param out           the stream to write to
+	 * @param previewWidth  width of the preview image, as rendered by drawThumbnail onto white. If 0, no preview is written
+	 * @param previewHeight height of the preview image
+	 */
+	public void serialize(OutputStream out, int previewWidth, int previewHeight) {
+		flushTessellationPipeline();
 		Output output = new Output(out);
 
 		Kryo kryo = new Kryo();
-		kryo.writeObject(output, COOKIE);
+		kryo.writeObject(output, VERSIONED_COOKIE);
+		output.writeInt(SERIALIZATION_VERSION);
+
+		byte[] previewJpegData = previewWidth > 0 && previewHeight > 0 ? renderPreview(previewWidth, previewHeight) : null;
+		if (previewJpegData != null) {
+			output.writeBoolean(true);
+			output.writeInt(previewWidth);
+			output.writeInt(previewHeight);
+			output.writeInt(previewJpegData.length);
+			output.writeBytes(previewJpegData);
+		} else {
+			output.writeBoolean(false);
+		}
+
 		kryo.writeObject(output, drawingSteps);
 
 		if (photoJpegData != null && photoJpegData.length > 0) {
@@ -166,21 +214,60 @@ public class PhotoDoodle extends IncrementalInputStrokeDoodle {
 	}
 
 	public void inflate(InputStream in) throws InvalidObjectException {
+		inflate(in, null);
+	}
+
+	/**
+	 * Read a doodle written by serialize, unless canceled. The token is checked between drawing steps, and before
+	 * the photo is decoded. If canceled, the doodle is left unchanged.
+	 *
+	 * @param in    the stream to read from
+	 * @param token if not null, a token which cancels the read
+	 * @throws InvalidObjectException                     if the data isn't a serialized doodle
+	 * @throws java.util.concurrent.CancellationException if token was canceled
+	 */
+	public void inflate(InputStream in, @Nullable CancellationToken token) throws InvalidObjectException {
 		Input input = new Input(in);
 		Kryo kryo = new Kryo();
+		kryo.addDefaultSerializer(IntermediateDrawingStep.class, new IntermediateDrawingStep.CancellableSerializer(token));
 
 		int cookie = kryo.readObject(input, Integer.class);
+		if (cookie == VERSIONED_COOKIE) {
+			int serializationVersion = input.readInt();
+			switch (serializationVersion) {
+				case 1:
+					// the preview is only of interest to readPreview
+					if (input.readBoolean()) {
+						input.readInt();
+						input.readInt();
+						input.skip(input.readInt());
+					}
+					break;
+
+				default:
+					throw new InvalidObjectException("Unsupported " + this.getClass().getName() + " serialization version: " + serializationVersion);
+			}
+
+			// the rest is as in the original format
+			cookie = COOKIE;
+		}
+
 		if (cookie == COOKIE) {
 			//noinspection unchecked
-			drawingSteps = kryo.readObject(input, ArrayList.class);
+			ArrayList<IntermediateDrawingStep> steps = kryo.readObject(input, ArrayList.class);
 
 			boolean hasPhoto = kryo.readObject(input, Boolean.class);
 			if (hasPhoto) {
-				userTranslationOnCanvas = kryo.readObject(input, PointF.class);
-				setPhotoJpegData(kryo.readObject(input, byte[].class));
+				PointF translation = kryo.readObject(input, PointF.class);
+				byte[] jpegData = kryo.readObject(input, byte[].class);
+
+				// decoding the photo is the most expensive part of the load
+				CancellationToken.check(token);
+				userTranslationOnCanvas = translation;
+				setPhotoJpegData(jpegData);
 			}
 
-			renderDrawingSteps();
+			setDrawingSteps(steps);
 			setDirty(false);
 
 		} else {
@@ -188,6 +275,62 @@ public class PhotoDoodle extends IncrementalInputStrokeDoodle {
 		}
 	}
 
+	/**
+	 * Read the preview image from the header of a serialized doodle, without deserializing the drawing
+	 *
+	 * @param in     a stream of data written by serialize
+	 * @param width  required width of the preview
+	 * @param height required height of the preview
+	 * @return the preview, or null if the data has no preview, or its preview isn't width by height
+	 * @throws InvalidObjectException if the data isn't a serialized doodle
+	 */
+	@Nullable
+	public static Bitmap readPreview(InputStream in, int width, int height) throws InvalidObjectException {
+		Input input = new Input(in);
+		Kryo kryo = new Kryo();
+
+		int cookie = kryo.readObject(input, Integer.class);
+		if (cookie == COOKIE) {
+			// original format has no preview
+			return null;
+		} else if (cookie != VERSIONED_COOKIE) {
+			throw new InvalidObjectException("Missing COOKIE header (0x" + Integer.toString(COOKIE, 16) + ")");
+		}
+
+		int serializationVersion = input.readInt();
+		switch (serializationVersion) {
+			case 1:
+				if (!input.readBoolean()) {
+					return null;
+				}
+
+				int previewWidth = input.readInt();
+				int previewHeight = input.readInt();
+				if (previewWidth != width || previewHeight != height) {
+					return null;
+				}
+
+				byte[] previewJpegData = input.readBytes(input.readInt());
+				return BitmapFactory.decodeByteArray(previewJpegData, 0, previewJpegData.length);
+
+			default:
+				throw new InvalidObjectException("Unsupported " + PhotoDoodle.class.getName() + " serialization version: " + serializationVersion);
+		}
+	}
+
+	@Nullable
+	private byte[] renderPreview(int width, int height) {
+		Bitmap preview = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		preview.eraseColor(0xFFFFFFFF);
+		drawThumbnail(new Canvas(preview), width, height);
+
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		boolean compressed = preview.compress(Bitmap.CompressFormat.JPEG, PREVIEW_JPEG_QUALITY, byteArrayOutputStream);
+		preview.recycle();
+
+		return compressed ? byteArrayOutputStream.toByteArray() : null;
+	}
+
 	protected void onTouchEventMove(@NonNull MotionEvent event) {
 		switch (getInteractionMode()) {
 			case PHOTO:
@@ -266,15 +409,25 @@ public class PhotoDoodle extends IncrementalInputStrokeDoodle {
 			return;
 		}
 
+		computePhotoMatrix(photoMatrix);
+	}
+
+	/**
+	 * Compute the transform from photo to canvas coordinates. Unlike the screen transforms, it doesn't depend on the doodle's size.
+	 *
+	 * @param matrix receives the transform
+	 */
+	void computePhotoMatrix(Matrix matrix) {
+		matrix.reset();
+
 		if (photo != null) {
 			// use FILL photo scaling
 			float minPhotoSize = Math.min(photo.getWidth(), photo.getHeight());
 			float photoScale = CANVAS_SIZE * 2 / minPhotoSize;
 
-			photoMatrix.preTranslate(userTranslationOnCanvas.x, userTranslationOnCanvas.y);
-			photoMatrix.preScale(photoScale, photoScale);
-			photoMatrix.preTranslate(-photo.getWidth() / 2, -photo.getHeight() / 2);
+			matrix.preTranslate(userTranslationOnCanvas.x, userTranslationOnCanvas.y);
+			matrix.preScale(photoScale, photoScale);
+			matrix.preTranslate(-photo.getWidth() / 2, -photo.getHeight() / 2);
 		}
-
 	}
 }
@@ -35,7 +35,7 @@ public class InputStrokeTessellationDoodle extends Doodle {
 	private InputStrokeTessellator inputStrokeTessellator;
 	private Path inputStrokeTessellatedPath;
 	private Paint handlePaint, tessellatedInputStrokePathFillPaint, tessellatedInputStrokePathStrokePaint;
-	private InputStroke.Point draggingPoint;
+	private int draggingPointIndex = -1;
 	private Context context;
 
 	public InputStrokeTessellationDoodle(Context context) {
@@ -102,13 +102,14 @@ public class InputStrokeTessellationDoodle extends Doodle {
 		if (inputStroke != null) {
 			// draw dots representing the input points
 			for (int i = 0, N = inputStroke.size(); i < N; i++) {
-				InputStroke.Point point = inputStroke.get(i);
+				float x = inputStroke.getX(i);
+				float y = inputStroke.getY(i);
 				PointF tangent = inputStroke.getTangent(i);
-				float radius = inputStrokeTessellator.getRadiusForInputStrokePoint(point);
-				canvas.drawCircle(point.position.x, point.position.y, radius, handlePaint);
+				float radius = inputStrokeTessellator.getRadiusForInputStrokePoint(i);
+				canvas.drawCircle(x, y, radius, handlePaint);
 
-				PointF t = new PointF(point.position.x + tangent.x * 2 * radius, point.position.y + tangent.y * 2 * radius);
-				canvas.drawLine(point.position.x, point.position.y, t.x, t.y, handlePaint);
+				PointF t = new PointF(x + tangent.x * 2 * radius, y + tangent.y * 2 * radius);
+				canvas.drawLine(x, y, t.x, t.y, handlePaint);
 			}
 		}
 	}
@@ -122,34 +123,32 @@ public class InputStrokeTessellationDoodle extends Doodle {
 	protected void onTouchEventBegin(@NonNull MotionEvent event) {
 
 		PointF point = new PointF(event.getX(), event.getY());
+		PointF p = new PointF();
 		float minDist2 = Float.MAX_VALUE;
-		int index = -1;
+		draggingPointIndex = -1;
 		for (int i = 0; i < inputStroke.size(); i++) {
-			InputStroke.Point p = inputStroke.get(i);
-			float d2 = PointFUtil.distance2(point, p.position);
+			float d2 = PointFUtil.distance2(point, inputStroke.getPosition(i, p));
 			if (d2 < minDist2) {
 				minDist2 = d2;
-				draggingPoint = p;
-				index = i;
+				draggingPointIndex = i;
 			}
 		}
 
 		// now, confirm closest match was close enough
-		if (index >= 0) {
-			float radius = inputStrokeTessellator.getRadiusForInputStrokePoint(draggingPoint);
+		if (draggingPointIndex >= 0) {
+			float radius = inputStrokeTessellator.getRadiusForInputStrokePoint(draggingPointIndex);
 			if (minDist2 > (radius * radius)) {
-				draggingPoint = null;
+				draggingPointIndex = -1;
 			}
 		}
 	}
 
 	@Override
 	protected void onTouchEventMove(@NonNull MotionEvent event) {
-		if (draggingPoint != null) {
+		if (draggingPointIndex >= 0) {
 
 			// update line
-			draggingPoint.position.x = event.getX();
-			draggingPoint.position.y = event.getY();
+			inputStroke.set(draggingPointIndex, event.getX(), event.getY());
 			inputStroke.invalidate();
 			tessellate();
 		}
@@ -160,7 +159,7 @@ public class InputStrokeTessellationDoodle extends Doodle {
 
 	@Override
 	protected void onTouchEventEnd(@NonNull MotionEvent event) {
-		draggingPoint = null;
+		draggingPointIndex = -1;
 		invalidate(getBoundingRect());
 		save();
 	}
@@ -0,0 +1,45 @@
+package org.zakariya.doodle.util;
+
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Flag for cooperatively canceling long running work, e.g., loading and rendering a doodle on a background thread.
+ * The work checks the token at convenient points, e.g., between drawing steps, and abandons itself by throwing
+ * CancellationException, releasing what it had allocated on the way out. Methods taking a token accept null for
+ * work which can't be canceled.
+ */
+public class CancellationToken {
+
+	private volatile boolean canceled;
+
+	/**
+	 * Request that work checking this token stop. May be called from any thread.
+	 */
+	public void cancel() {
+		canceled = true;
+	}
+
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	/**
+	 * @param token a token, or null
+	 * @return true if token isn't null and was canceled
+	 */
+	public static boolean isCanceled(@Nullable CancellationToken token) {
+		return token != null && token.canceled;
+	}
+
+	/**
+	 * @param token a token, or null
+	 * @throws CancellationException if token isn't null and was canceled
+	 */
+	public static void check(@Nullable CancellationToken token) {
+		if (token != null && token.canceled) {
+			throw new CancellationException();
+		}
+	}
+}
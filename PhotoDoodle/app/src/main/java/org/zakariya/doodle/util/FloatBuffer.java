@@ -1,35 +1,126 @@
 package org.zakariya.doodle.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
  * Created by shamyl on 9/29/15.
  * Represents a growable float buffer, like c++ std::vector<float>
+ * Clearing keeps the allocated storage, so a buffer which is refilled repeatedly stops allocating once it has
+ * grown to its working size. Buffers may also be pooled via obtain() and recycle().
+ * See IntBuffer and LongBuffer.
  */
 public class FloatBuffer {
 	private static final float GROWTH_FACTOR = 1.625f;
+	private static final int DEFAULT_INITIAL_BUFFER_SIZE = 16;
+	private static final int MAX_POOL_SIZE = 8;
+	private static final int MAX_POOLED_CAPACITY = 4096;
+	private static final ArrayList<FloatBuffer> pool = new ArrayList<>();
+
 	private float buffer[] = null;
 	private int size = 0;
 	private int initialBufferSize;
 
 	public FloatBuffer() {
-		this(16);
+		this(DEFAULT_INITIAL_BUFFER_SIZE);
 	}
 
 	public FloatBuffer(int initialBufferSize) {
-		this.initialBufferSize = initialBufferSize;
-		buffer = new float[initialBufferSize];
+		this.initialBufferSize = Math.max(initialBufferSize, 1);
+		buffer = new float[this.initialBufferSize];
 		this.size = 0;
 	}
 
+	/**
+	 * Get an empty buffer from the pool, or a new one if the pool is empty. Return it with recycle() when done.
+	 *
+	 * @return an empty FloatBuffer
+	 */
+	public static FloatBuffer obtain() {
+		synchronized (pool) {
+			if (!pool.isEmpty()) {
+				return pool.remove(pool.size() - 1);
+			}
+		}
+
+		return new FloatBuffer();
+	}
+
+	/**
+	 * Clear the buffer and return it to the pool used by obtain(). The buffer must not be used after recycling.
+	 * A buffer grown beyond MAX_POOLED_CAPACITY gives up its storage first, so one outsized use doesn't stay pinned by the pool.
+	 */
+	public void recycle() {
+		if (buffer.length > MAX_POOLED_CAPACITY) {
+			trim();
+		} else {
+			clear();
+		}
+
+		synchronized (pool) {
+			if (pool.size() < MAX_POOL_SIZE) {
+				pool.add(this);
+			}
+		}
+	}
+
+	/**
+	 * Create a buffer holding values, adopting the array as its backing storage rather than copying it
+	 *
+	 * @param values the buffer's contents
+	 * @return a FloatBuffer of size values.length
+	 */
+	public static FloatBuffer wrap(float values[]) {
+		FloatBuffer buffer = new FloatBuffer(0);
+		buffer.buffer = values;
+		buffer.size = values.length;
+		return buffer;
+	}
+
 	public void add(float v) {
 		if (size == buffer.length) {
-			buffer = Arrays.copyOf(buffer, (int) (buffer.length * GROWTH_FACTOR));
+			grow(size + 1);
 		}
 
 		buffer[size++] = v;
 	}
 
+	/**
+	 * Append two values, e.g., an x,y pair
+	 */
+	public void add(float a, float b) {
+		if (size + 2 > buffer.length) {
+			grow(size + 2);
+		}
+
+		buffer[size++] = a;
+		buffer[size++] = b;
+	}
+
+	/**
+	 * Grow the buffer by count values, to be written directly into the returned backing array at indices
+	 * [size() before the call, size() after the call). Lets bulk producers fill the buffer without a method call per value.
+	 *
+	 * @param count number of values to grow by
+	 * @return the backing array, valid until the buffer is next grown
+	 */
+	public float[] extend(int count) {
+		final int newSize = size + count;
+		if (newSize > buffer.length) {
+			grow(newSize);
+		}
+
+		size = newSize;
+		return buffer;
+	}
+
+	/**
+	 * @return the buffer's backing array, without copying. Only the first size() values are meaningful; valid until the buffer is next grown
+	 */
+	public float[] getBackingArray() {
+		return buffer;
+	}
+
 	public float get(int i) {
 		if (i < 0) {
 			return buffer[size + i];
@@ -58,11 +149,69 @@ public class FloatBuffer {
 		return size;
 	}
 
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Make sure the buffer can hold at least `capacity values without reallocating
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			grow(capacity);
+		}
+	}
+
+	/**
+	 * Shrink the buffer to newSize, keeping its first newSize values and its current capacity
+	 *
+	 * @param newSize the new size, no greater than the current size
+	 */
+	public void truncate(int newSize) {
+		if (newSize < 0 || newSize > size) {
+			throw new ArrayIndexOutOfBoundsException(newSize);
+		}
+
+		size = newSize;
+	}
+
+	/**
+	 * Set the buffer's size, growing storage if needed. Values in [old size, newSize) are unspecified.
+	 *
+	 * @param newSize the new size
+	 * @return the backing array, valid until the buffer is next grown
+	 */
+	public float[] resize(int newSize) {
+		if (newSize < 0) {
+			throw new ArrayIndexOutOfBoundsException(newSize);
+		}
+
+		ensureCapacity(newSize);
+		size = newSize;
+		return buffer;
+	}
+
+	/**
+	 * Empty the buffer, keeping its storage
+	 */
 	public void clear() {
-		buffer = new float[initialBufferSize];
 		size = 0;
 	}
 
+	/**
+	 * Empty the buffer and release any storage it has grown beyond its initial size
+	 */
+	public void trim() {
+		size = 0;
+		if (buffer.length > initialBufferSize) {
+			buffer = new float[initialBufferSize];
+		}
+	}
+
 	/**
 	 * Get a compacted copy of the buffer
 	 *
@@ -71,4 +220,8 @@ public class FloatBuffer {
 	public float[] getBuffer() {
 		return Arrays.copyOf(buffer, size);
 	}
+
+	private void grow(int minCapacity) {
+		buffer = Arrays.copyOf(buffer, Math.max(minCapacity, (int) (buffer.length * GROWTH_FACTOR) + 1));
+	}
 }
@@ -0,0 +1,215 @@
+package org.zakariya.doodle.util;
+
+import android.graphics.RectF;
+import android.view.Choreographer;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Coalesces per-sample work and invalidation into one pass per display frame. Between frames, callers report
+ * the samples they've queued and the regions they've dirtied; at the next vsync the listener processes the queued
+ * samples once, then the union of the dirty regions is invalidated in a single call. A digitizer sampling faster
+ * than the display then costs no more tessellation or redraw than one sampling at the display rate.
+ * <p/>
+ * Frames are scheduled with the Choreographer of the thread which first schedules one, so a FrameScheduler must only
+ * be used from a Looper thread, generally the UI thread.
+ */
+public class FrameScheduler implements Choreographer.FrameCallback {
+
+	public interface Listener {
+		/**
+		 * Called at the start of a scheduled frame, to process the samples queued since the last. It may add to the
+		 * frame's dirty region with FrameScheduler.invalidate.
+		 *
+		 * @param frameScheduler the scheduler
+		 * @param frameTimeNanos the frame's vsync time, in the System.nanoTime() timebase
+		 */
+		void onFrame(FrameScheduler frameScheduler, long frameTimeNanos);
+
+		/**
+		 * Called after onFrame, if any region was dirtied since the last frame
+		 *
+		 * @param dirtyRect the union of the regions dirtied since the last frame. Only valid for the duration of the call
+		 */
+		void onInvalidate(RectF dirtyRect);
+	}
+
+	private WeakReference<Listener> listenerWeakReference;
+	private Choreographer choreographer;
+	private boolean scheduled;
+	private boolean inFrame;
+	private RectF dirtyRect = new RectF();
+	private int pendingSampleCount;
+
+	// stats
+	private long frameCount;
+	private long totalSampleCount;
+	private int lastFrameSampleCount;
+	private int maxFrameSampleCount;
+	private float lastFrameDirtyArea;
+	private double totalDirtyArea;
+
+	/**
+	 * Create a new FrameScheduler
+	 * NOTE: listener is held weakly
+	 *
+	 * @param listener listener which does the frame's work
+	 */
+	public FrameScheduler(Listener listener) {
+		listenerWeakReference = new WeakReference<>(listener);
+	}
+
+	/**
+	 * Record that samples were queued for the next frame to process, and schedule it
+	 *
+	 * @param count number of samples queued
+	 */
+	public void addSamples(int count) {
+		pendingSampleCount += count;
+		schedule();
+	}
+
+	/**
+	 * Add a region to the next frame's invalidation, and schedule it. Called during onFrame, the region is added to the current frame.
+	 *
+	 * @param rect the dirty region
+	 */
+	public void invalidate(RectF rect) {
+		if (rect.isEmpty()) {
+			return;
+		}
+
+		if (dirtyRect.isEmpty()) {
+			dirtyRect.set(rect);
+		} else {
+			dirtyRect.union(rect);
+		}
+		schedule();
+	}
+
+	/**
+	 * Request a frame, if one isn't already pending
+	 */
+	public void schedule() {
+		if (scheduled || inFrame) {
+			return;
+		}
+
+		if (choreographer == null) {
+			choreographer = Choreographer.getInstance();
+		}
+
+		choreographer.postFrameCallback(this);
+		scheduled = true;
+	}
+
+	/**
+	 * Run any pending frame now, e.g., when a stroke ends and its remaining samples must be processed before it's committed
+	 */
+	public void flush() {
+		if (scheduled) {
+			choreographer.removeFrameCallback(this);
+			scheduled = false;
+			doFrame(System.nanoTime());
+		}
+	}
+
+	/**
+	 * Drop any pending frame without running it, discarding the dirty region
+	 */
+	public void cancel() {
+		if (scheduled) {
+			choreographer.removeFrameCallback(this);
+			scheduled = false;
+		}
+
+		dirtyRect.setEmpty();
+		pendingSampleCount = 0;
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		scheduled = false;
+
+		Listener listener = listenerWeakReference.get();
+		if (listener != null) {
+			inFrame = true;
+			try {
+				listener.onFrame(this, frameTimeNanos);
+			} finally {
+				inFrame = false;
+			}
+		}
+
+		frameCount++;
+		lastFrameSampleCount = pendingSampleCount;
+		totalSampleCount += pendingSampleCount;
+		maxFrameSampleCount = Math.max(maxFrameSampleCount, pendingSampleCount);
+		lastFrameDirtyArea = dirtyRect.width() * dirtyRect.height();
+		totalDirtyArea += lastFrameDirtyArea;
+		pendingSampleCount = 0;
+
+		if (listener != null && !dirtyRect.isEmpty()) {
+			listener.onInvalidate(dirtyRect);
+		}
+		dirtyRect.setEmpty();
+	}
+
+	/**
+	 * @return number of frames run
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return number of samples absorbed by all frames
+	 */
+	public long getTotalSampleCount() {
+		return totalSampleCount;
+	}
+
+	/**
+	 * @return number of samples absorbed by the last frame
+	 */
+	public int getLastFrameSampleCount() {
+		return lastFrameSampleCount;
+	}
+
+	/**
+	 * @return the greatest number of samples absorbed by a frame
+	 */
+	public int getMaxFrameSampleCount() {
+		return maxFrameSampleCount;
+	}
+
+	/**
+	 * @return mean number of samples absorbed per frame
+	 */
+	public float getMeanFrameSampleCount() {
+		return frameCount > 0 ? (float) totalSampleCount / frameCount : 0;
+	}
+
+	/**
+	 * @return area, in the dirty regions' units (generally square pixels), invalidated by the last frame
+	 */
+	public float getLastFrameDirtyArea() {
+		return lastFrameDirtyArea;
+	}
+
+	/**
+	 * @return area invalidated by all frames. Overlapping regions of successive frames are counted once per frame
+	 */
+	public double getTotalDirtyArea() {
+		return totalDirtyArea;
+	}
+
+	public void resetStats() {
+		frameCount = 0;
+		totalSampleCount = 0;
+		lastFrameSampleCount = 0;
+		maxFrameSampleCount = 0;
+		lastFrameDirtyArea = 0;
+		totalDirtyArea = 0;
+	}
+}
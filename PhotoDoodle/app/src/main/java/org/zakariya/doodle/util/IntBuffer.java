@@ -0,0 +1,176 @@
+package org.zakariya.doodle.util;
+
+import java.util.Arrays;
+
+/**
+ * Represents a growable int buffer, like c++ std::vector<int>
+ * Clearing keeps the allocated storage, so a buffer which is refilled repeatedly stops allocating once it has
+ * grown to its working size.
+ * See FloatBuffer.
+ */
+public class IntBuffer {
+	private static final float GROWTH_FACTOR = 1.625f;
+	private static final int DEFAULT_INITIAL_BUFFER_SIZE = 16;
+
+	private int buffer[] = null;
+	private int size = 0;
+	private int initialBufferSize;
+
+	public IntBuffer() {
+		this(DEFAULT_INITIAL_BUFFER_SIZE);
+	}
+
+	public IntBuffer(int initialBufferSize) {
+		this.initialBufferSize = Math.max(initialBufferSize, 1);
+		buffer = new int[this.initialBufferSize];
+		this.size = 0;
+	}
+
+	public void add(int v) {
+		if (size == buffer.length) {
+			grow(size + 1);
+		}
+
+		buffer[size++] = v;
+	}
+
+	/**
+	 * Append two values, e.g., a start,end pair
+	 */
+	public void add(int a, int b) {
+		if (size + 2 > buffer.length) {
+			grow(size + 2);
+		}
+
+		buffer[size++] = a;
+		buffer[size++] = b;
+	}
+
+	/**
+	 * Grow the buffer by count values, to be written directly into the returned backing array at indices
+	 * [size() before the call, size() after the call). Lets bulk producers fill the buffer without a method call per value.
+	 *
+	 * @param count number of values to grow by
+	 * @return the backing array, valid until the buffer is next grown
+	 */
+	public int[] extend(int count) {
+		final int newSize = size + count;
+		if (newSize > buffer.length) {
+			grow(newSize);
+		}
+
+		size = newSize;
+		return buffer;
+	}
+
+	/**
+	 * @return the buffer's backing array, without copying. Only the first size() values are meaningful; valid until the buffer is next grown
+	 */
+	public int[] getBackingArray() {
+		return buffer;
+	}
+
+	public int get(int i) {
+		if (i < 0) {
+			return buffer[size + i];
+		} else {
+			if (i > size - 1) {
+				throw new ArrayIndexOutOfBoundsException(i);
+			}
+
+			return buffer[i];
+		}
+	}
+
+	public void set(int i, int v) {
+		if (i < 0) {
+			set(size + i, v);
+		} else {
+			if (i > size - 1) {
+				throw new ArrayIndexOutOfBoundsException(i);
+			} else {
+				buffer[i] = v;
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Make sure the buffer can hold at least `capacity values without reallocating
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			grow(capacity);
+		}
+	}
+
+	/**
+	 * Shrink the buffer to newSize, keeping its first newSize values and its current capacity
+	 *
+	 * @param newSize the new size, no greater than the current size
+	 */
+	public void truncate(int newSize) {
+		if (newSize < 0 || newSize > size) {
+			throw new ArrayIndexOutOfBoundsException(newSize);
+		}
+
+		size = newSize;
+	}
+
+	/**
+	 * Set the buffer's size, growing storage if needed. Values in [old size, newSize) are unspecified.
+	 *
+	 * @param newSize the new size
+	 * @return the backing array, valid until the buffer is next grown
+	 */
+	public int[] resize(int newSize) {
+		if (newSize < 0) {
+			throw new ArrayIndexOutOfBoundsException(newSize);
+		}
+
+		ensureCapacity(newSize);
+		size = newSize;
+		return buffer;
+	}
+
+	/**
+	 * Empty the buffer, keeping its storage
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Empty the buffer and release any storage it has grown beyond its initial size
+	 */
+	public void trim() {
+		size = 0;
+		if (buffer.length > initialBufferSize) {
+			buffer = new int[initialBufferSize];
+		}
+	}
+
+	/**
+	 * Get a compacted copy of the buffer
+	 *
+	 * @return buffer's contents, compacted to size, such that buffer.length == size
+	 */
+	public int[] getBuffer() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	private void grow(int minCapacity) {
+		buffer = Arrays.copyOf(buffer, Math.max(minCapacity, (int) (buffer.length * GROWTH_FACTOR) + 1));
+	}
+}
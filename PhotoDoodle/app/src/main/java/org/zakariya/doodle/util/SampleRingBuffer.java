@@ -0,0 +1,112 @@
+package org.zakariya.doodle.util;
+
+/**
+ * Fixed capacity single-producer/single-consumer ring buffer of input samples (position, timestamp and a flag).
+ * One thread may call offer(), and one other thread may call available(), the getters and consume(). No locks
+ * are taken; the producer publishes slots by advancing a volatile write sequence, and the consumer releases them
+ * by advancing a volatile read sequence.
+ */
+public class SampleRingBuffer {
+
+	private final int capacity;
+	private final int mask;
+	private final float xs[];
+	private final float ys[];
+	private final long timestamps[];
+	private final int flags[];
+
+	// next slot to write; only written by the producer
+	private volatile long writeSequence;
+
+	// next slot to read; only written by the consumer
+	private volatile long readSequence;
+
+	/**
+	 * @param capacity number of samples the buffer can hold. Will be rounded up to a power of 2
+	 */
+	public SampleRingBuffer(int capacity) {
+		int c = 1;
+		while (c < capacity) {
+			c <<= 1;
+		}
+
+		this.capacity = c;
+		mask = c - 1;
+		xs = new float[c];
+		ys = new float[c];
+		timestamps = new long[c];
+		flags = new int[c];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Publish a sample. Producer thread only.
+	 *
+	 * @param x         x position
+	 * @param y         y position
+	 * @param timestamp timestamp in milliseconds
+	 * @param flag      caller defined flag
+	 * @return true if the sample was published, false if the buffer is full
+	 */
+	public boolean offer(float x, float y, long timestamp, int flag) {
+		final long w = writeSequence;
+		if (w - readSequence == capacity) {
+			return false;
+		}
+
+		final int i = (int) (w & mask);
+		xs[i] = x;
+		ys[i] = y;
+		timestamps[i] = timestamp;
+		flags[i] = flag;
+
+		// the volatile write publishes the slot to the consumer
+		writeSequence = w + 1;
+		return true;
+	}
+
+	/**
+	 * @return number of samples published and not yet consumed
+	 */
+	public int available() {
+		return (int) (writeSequence - readSequence);
+	}
+
+	public boolean isEmpty() {
+		return writeSequence == readSequence;
+	}
+
+	/**
+	 * Consumer thread only.
+	 *
+	 * @param offset offset from the oldest unconsumed sample, less than available()
+	 * @return x position of the sample
+	 */
+	public float getX(int offset) {
+		return xs[(int) ((readSequence + offset) & mask)];
+	}
+
+	public float getY(int offset) {
+		return ys[(int) ((readSequence + offset) & mask)];
+	}
+
+	public long getTimestamp(int offset) {
+		return timestamps[(int) ((readSequence + offset) & mask)];
+	}
+
+	public int getFlag(int offset) {
+		return flags[(int) ((readSequence + offset) & mask)];
+	}
+
+	/**
+	 * Release the oldest count samples, making their slots available to the producer. Consumer thread only.
+	 *
+	 * @param count number of samples to release, no greater than available()
+	 */
+	public void consume(int count) {
+		readSequence = readSequence + count;
+	}
+}
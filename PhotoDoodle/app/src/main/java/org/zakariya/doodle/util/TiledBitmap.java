@@ -0,0 +1,395 @@
+package org.zakariya.doodle.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.Nullable;
+
+/**
+ * A raster layer split into fixed-size square tiles. A tile's bitmap is only allocated when something is painted
+ * into it, so a sparse drawing costs a fraction of a full-screen bitmap. Paths are only rasterized into the tiles
+ * their bounds touch, and draw() only blits the tiles which intersect the destination canvas's clip.
+ * <p/>
+ * Regions may be invalidated and repainted: invalidate() marks the tiles under a rect dirty, and between
+ * beginRedraw() and endRedraw() the dirty tiles are erased and only they receive painting. Dirty tiles
+ * nothing was painted into are freed.
+ */
+public class TiledBitmap {
+
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	/**
+	 * Immutable copy of a TiledBitmap's tiles, which a redraw can start from instead of from blank tiles
+	 */
+	public static final class Snapshot {
+		private final int width, height;
+		private final Bitmap tiles[];
+		private final int byteCount;
+
+		private Snapshot(int width, int height, Bitmap tiles[], int byteCount) {
+			this.width = width;
+			this.height = height;
+			this.tiles = tiles;
+			this.byteCount = byteCount;
+		}
+
+		/**
+		 * @return bytes used by the snapshot's tile copies
+		 */
+		public int getByteCount() {
+			return byteCount;
+		}
+
+		/**
+		 * Free the snapshot's tile copies. The snapshot must not be used afterwards.
+		 */
+		public void recycle() {
+			for (Bitmap tile : tiles) {
+				if (tile != null) {
+					tile.recycle();
+				}
+			}
+		}
+	}
+
+	private static final class Tile {
+		Bitmap bitmap;
+		Canvas canvas;
+		boolean dirty;
+		boolean painted;
+	}
+
+	private int tileSize;
+	private int width, height;
+	private int columns, rows;
+	private Tile tiles[];
+	private Matrix matrix = new Matrix();
+	private boolean redrawing;
+	private int dirtyCount;
+
+	private final Matrix identityMatrix = new Matrix();
+	private final RectF scratchRectF = new RectF();
+	private final Rect scratchRect = new Rect();
+
+	public TiledBitmap() {
+		this(DEFAULT_TILE_SIZE);
+	}
+
+	public TiledBitmap(int tileSize) {
+		this.tileSize = tileSize;
+		tiles = new Tile[0];
+	}
+
+	/**
+	 * Set the size of the layer in pixels. Discards all tiles.
+	 */
+	public void resize(int width, int height) {
+		recycle();
+		this.width = width;
+		this.height = height;
+		columns = (width + tileSize - 1) / tileSize;
+		rows = (height + tileSize - 1) / tileSize;
+		tiles = new Tile[columns * rows];
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = new Tile();
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * @param matrix the transform applied to paths drawn into the layer, e.g., canvas to screen
+	 */
+	public void setMatrix(Matrix matrix) {
+		this.matrix.set(matrix);
+	}
+
+	/**
+	 * @return number of tiles with allocated bitmaps
+	 */
+	public int getAllocatedTileCount() {
+		int count = 0;
+		for (Tile tile : tiles) {
+			if (tile.bitmap != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return bytes used by allocated tile bitmaps
+	 */
+	public int getByteCount() {
+		return getAllocatedTileCount() * tileSize * tileSize * 4;
+	}
+
+	/**
+	 * Free all tiles, leaving the layer empty
+	 */
+	public void clear() {
+		recycle();
+		for (Tile tile : tiles) {
+			tile.dirty = false;
+		}
+		dirtyCount = 0;
+	}
+
+	/**
+	 * Mark the tiles intersecting rect dirty, so they're repainted at the next beginRedraw()/endRedraw()
+	 *
+	 * @param rect region in layer pixels, or null to invalidate the whole layer
+	 */
+	public void invalidate(@Nullable RectF rect) {
+		if (!getTileRange(rect, scratchRect)) {
+			return;
+		}
+
+		for (int row = scratchRect.top; row < scratchRect.bottom; row++) {
+			for (int col = scratchRect.left; col < scratchRect.right; col++) {
+				Tile tile = tiles[row * columns + col];
+				if (!tile.dirty) {
+					tile.dirty = true;
+					dirtyCount++;
+				}
+			}
+		}
+	}
+
+	public boolean isDirty() {
+		return dirtyCount > 0;
+	}
+
+	/**
+	 * Get the region a redraw repaints, which covers whole tiles and so may be larger than the invalidated rects
+	 *
+	 * @param into receives the bounds of the dirty tiles, in layer pixels; set empty if no tiles are dirty
+	 * @return into
+	 */
+	public RectF getDirtyBounds(RectF into) {
+		into.setEmpty();
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i].dirty) {
+				final int x = (i % columns) * tileSize;
+				final int y = (i / columns) * tileSize;
+				into.union(x, y, Math.min(x + tileSize, width), Math.min(y + tileSize, height));
+			}
+		}
+		return into;
+	}
+
+	/**
+	 * Erase the dirty tiles. Until endRedraw(), drawPath() only paints into dirty tiles.
+	 */
+	public void beginRedraw() {
+		beginRedraw(null);
+	}
+
+	/**
+	 * Reset the dirty tiles to their content in a snapshot, or erase them if snapshot is null. Until endRedraw(),
+	 * drawPath() only paints into dirty tiles.
+	 *
+	 * @param snapshot a snapshot of this layer, taken at its current size, or null
+	 */
+	public void beginRedraw(@Nullable Snapshot snapshot) {
+		if (snapshot != null && (snapshot.width != width || snapshot.height != height)) {
+			throw new IllegalArgumentException("Snapshot size " + snapshot.width + "x" + snapshot.height + " doesn't match layer size " + width + "x" + height);
+		}
+
+		redrawing = true;
+		for (int i = 0; i < tiles.length; i++) {
+			Tile tile = tiles[i];
+			if (!tile.dirty) {
+				continue;
+			}
+
+			tile.painted = false;
+			if (tile.bitmap != null) {
+				tile.bitmap.eraseColor(0x0);
+			}
+
+			Bitmap source = snapshot != null ? snapshot.tiles[i] : null;
+			if (source != null) {
+				if (tile.bitmap == null) {
+					allocateTile(tile, i % columns, i / columns);
+				}
+
+				tile.canvas.save();
+				tile.canvas.setMatrix(identityMatrix);
+				tile.canvas.drawBitmap(source, 0, 0, null);
+				tile.canvas.restore();
+				tile.painted = true;
+			}
+		}
+	}
+
+	/**
+	 * Copy the layer's allocated tiles
+	 *
+	 * @return a snapshot which beginRedraw() can restore from
+	 */
+	public Snapshot snapshot() {
+		Bitmap copies[] = new Bitmap[tiles.length];
+		int byteCount = 0;
+		for (int i = 0; i < tiles.length; i++) {
+			Bitmap bitmap = tiles[i].bitmap;
+			if (bitmap != null) {
+				copies[i] = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+				byteCount += copies[i].getByteCount();
+			}
+		}
+
+		return new Snapshot(width, height, copies, byteCount);
+	}
+
+	/**
+	 * Finish a redraw started by beginRedraw(). Dirty tiles nothing was painted into are freed, and all tiles are marked clean.
+	 */
+	public void endRedraw() {
+		redrawing = false;
+		for (Tile tile : tiles) {
+			if (tile.dirty) {
+				tile.dirty = false;
+				if (!tile.painted) {
+					freeTile(tile);
+				}
+			}
+		}
+		dirtyCount = 0;
+	}
+
+	/**
+	 * Draw a path into the tiles its bounds intersect
+	 *
+	 * @param path     the path, in the coordinate system mapped to layer pixels by the layer's matrix
+	 * @param paint    the paint
+	 * @param allocate if false, tiles not yet allocated are skipped; pass false for paints which only remove pixels, e.g., erasers
+	 */
+	public void drawPath(Path path, Paint paint, boolean allocate) {
+		path.computeBounds(scratchRectF, true);
+		drawPath(path, scratchRectF, paint, allocate);
+	}
+
+	/**
+	 * Draw a path into the tiles its bounds intersect, for callers which already know the path's bounds
+	 *
+	 * @param path     the path, in the coordinate system mapped to layer pixels by the layer's matrix
+	 * @param bounds   bounds of the path, in the path's coordinate system
+	 * @param paint    the paint
+	 * @param allocate if false, tiles not yet allocated are skipped. See drawPath(Path, Paint, boolean)
+	 */
+	public void drawPath(Path path, RectF bounds, Paint paint, boolean allocate) {
+		matrix.mapRect(scratchRectF, bounds);
+
+		// allow for antialiasing
+		scratchRectF.inset(-1, -1);
+		if (!getTileRange(scratchRectF, scratchRect)) {
+			return;
+		}
+
+		for (int row = scratchRect.top; row < scratchRect.bottom; row++) {
+			for (int col = scratchRect.left; col < scratchRect.right; col++) {
+				Tile tile = tiles[row * columns + col];
+				if (redrawing && !tile.dirty) {
+					continue;
+				}
+
+				if (tile.bitmap == null) {
+					if (!allocate) {
+						continue;
+					}
+					allocateTile(tile, col, row);
+				}
+
+				tile.canvas.drawPath(path, paint);
+				tile.painted = true;
+			}
+		}
+	}
+
+	/**
+	 * Composite the layer into canvas at its origin. Only tiles intersecting canvas's clip are drawn.
+	 *
+	 * @param canvas the destination canvas
+	 * @param paint  paint to draw the tiles with
+	 */
+	public void draw(Canvas canvas, Paint paint) {
+		final Rect clip = scratchRect;
+		if (!canvas.getClipBounds(clip)) {
+			return;
+		}
+
+		scratchRectF.set(clip);
+		if (!getTileRange(scratchRectF, clip)) {
+			return;
+		}
+
+		for (int row = clip.top; row < clip.bottom; row++) {
+			for (int col = clip.left; col < clip.right; col++) {
+				Tile tile = tiles[row * columns + col];
+				if (tile.bitmap != null) {
+					canvas.drawBitmap(tile.bitmap, col * tileSize, row * tileSize, paint);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Free all tile bitmaps
+	 */
+	public void recycle() {
+		for (Tile tile : tiles) {
+			freeTile(tile);
+		}
+	}
+
+	/**
+	 * Find the range of tiles intersecting rect
+	 *
+	 * @param rect  region in layer pixels, or null for the whole layer
+	 * @param range receives the columns [left, right) and rows [top, bottom) of the intersecting tiles
+	 * @return true if any tiles intersect rect
+	 */
+	private boolean getTileRange(@Nullable RectF rect, Rect range) {
+		if (rect == null) {
+			range.set(0, 0, columns, rows);
+		} else {
+			range.set(
+					Math.max((int) Math.floor(rect.left / tileSize), 0),
+					Math.max((int) Math.floor(rect.top / tileSize), 0),
+					Math.min((int) Math.floor(rect.right / tileSize) + 1, columns),
+					Math.min((int) Math.floor(rect.bottom / tileSize) + 1, rows));
+		}
+
+		return range.left < range.right && range.top < range.bottom;
+	}
+
+	private void allocateTile(Tile tile, int col, int row) {
+		tile.bitmap = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
+		tile.canvas = new Canvas(tile.bitmap);
+		tile.canvas.translate(-col * tileSize, -row * tileSize);
+		tile.canvas.concat(matrix);
+	}
+
+	private void freeTile(Tile tile) {
+		if (tile.bitmap != null) {
+			tile.bitmap.recycle();
+			tile.bitmap = null;
+			tile.canvas = null;
+		}
+	}
+}
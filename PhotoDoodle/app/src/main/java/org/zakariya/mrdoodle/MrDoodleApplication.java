@@ -2,6 +2,7 @@ package org.zakariya.mrdoodle;
 
 import android.content.res.Configuration;
 
+import org.zakariya.doodle.model.IncrementalInputStrokeDoodle;
 import org.zakariya.mrdoodle.util.DoodleThumbnailRenderer;
 import org.zakariya.mrdoodle.util.GoogleSignInManager;
 
@@ -52,6 +53,11 @@ public class MrDoodleApplication extends android.app.Application {
 	}
 
 	private void initSingletons() {
+		int replayParallelism = getResources().getInteger(R.integer.doodle_replay_parallelism);
+		if (replayParallelism > 0) {
+			IncrementalInputStrokeDoodle.setReplayParallelism(replayParallelism);
+		}
+
 		DoodleThumbnailRenderer.init(this);
 		GoogleSignInManager.init(this);
 	}
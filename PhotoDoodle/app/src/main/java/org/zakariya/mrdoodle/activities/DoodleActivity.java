@@ -247,6 +247,8 @@ public class DoodleActivity extends BaseActivity
 		photoDoodle.setCanvasBorderColor(ContextCompat.getColor(this,R.color.canvasBorder));
 		photoDoodle.setCanvasShadowColor(ContextCompat.getColor(this,R.color.canvasShadow));
 		photoDoodle.setBackgroundColor(ContextCompat.getColor(this,R.color.windowBackground));
+		photoDoodle.setAsynchronousTessellation(getResources().getBoolean(R.bool.doodle_asynchronous_tessellation));
+		photoDoodle.setVectorEraser(getResources().getBoolean(R.bool.doodle_vector_eraser));
 
 		doodleView.setDoodle(photoDoodle);
 
@@ -329,6 +331,10 @@ public class DoodleActivity extends BaseActivity
 				photoDoodle.undo();
 				return true;
 
+			case R.id.menuItemRedo:
+				photoDoodle.redo();
+				return true;
+
 			case R.id.menuItemClear:
 				photoDoodle.clear();
 				return true;
@@ -273,6 +273,16 @@ public class DoodleDocumentAdapter extends RecyclerView.Adapter<DoodleDocumentAd
 		}
 	}
 
+	@Override
+	public void onViewRecycled(ViewHolder holder) {
+		// the view scrolled away; its thumbnail isn't needed, so don't let it hold up the visible ones
+		if (holder.thumbnailRenderTask != null) {
+			holder.thumbnailRenderTask.cancel();
+			holder.thumbnailRenderTask = null;
+		}
+		super.onViewRecycled(holder);
+	}
+
 	@Override
 	public int getItemCount() {
 		return doodleDocuments.size();
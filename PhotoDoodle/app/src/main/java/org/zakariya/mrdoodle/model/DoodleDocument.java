@@ -1,9 +1,12 @@
 package org.zakariya.mrdoodle.model;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.support.annotation.Nullable;
 
 import org.zakariya.doodle.model.PhotoDoodle;
+import org.zakariya.doodle.util.CancellationToken;
+import org.zakariya.mrdoodle.util.DoodleThumbnailRenderer;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -76,6 +79,8 @@ public class DoodleDocument extends RealmObject {
 			file.delete();
 		}
 
+		invalidateThumbnails(document);
+
 		realm.beginTransaction();
 		document.removeFromRealm();
 		realm.commitTransaction();
@@ -102,21 +107,46 @@ public class DoodleDocument extends RealmObject {
 		try {
 			FileOutputStream fileOutputStream = new FileOutputStream(outputFile);
 			BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream);
-			doodle.serialize(bufferedOutputStream);
+
+			// embed a preview at the size thumbnails are being shown at, so the next thumbnail needn't render the doodle
+			DoodleThumbnailRenderer renderer = DoodleThumbnailRenderer.getInstance();
+			if (renderer != null) {
+				doodle.serialize(bufferedOutputStream, renderer.getPreviewWidth(), renderer.getPreviewHeight());
+			} else {
+				doodle.serialize(bufferedOutputStream);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	public static PhotoDoodle load(Context context, DoodleDocument document) {
+		return load(context, document, null);
+	}
+
+	/**
+	 * Load a document's doodle, unless canceled
+	 *
+	 * @param context  the context
+	 * @param document the document
+	 * @param token    if not null, a token which cancels the load. See PhotoDoodle.inflate
+	 * @return the doodle
+	 * @throws java.util.concurrent.CancellationException if token was canceled; the save file is closed
+	 */
+	public static PhotoDoodle load(Context context, DoodleDocument document, @Nullable CancellationToken token) {
+		CancellationToken.check(token);
+
 		PhotoDoodle doodle = new PhotoDoodle(context);
 		File inputFile = getSaveFile(context, document);
 		if (inputFile.exists()) {
 			try {
 				FileInputStream inputStream = new FileInputStream(inputFile);
-				BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
-				doodle.inflate(bufferedInputStream);
-				inputStream.close();
+				try {
+					BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
+					doodle.inflate(bufferedInputStream, token);
+				} finally {
+					inputStream.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -125,6 +155,34 @@ public class DoodleDocument extends RealmObject {
 		return doodle;
 	}
 
+	/**
+	 * Load the preview image embedded in a document's save file, without loading the doodle
+	 *
+	 * @param context  the context
+	 * @param document the document
+	 * @param width    required width of the preview
+	 * @param height   required height of the preview
+	 * @return the preview, or null if there's no save file, or it has no preview of the required size
+	 */
+	@Nullable
+	public static Bitmap loadPreview(Context context, DoodleDocument document, int width, int height) {
+		File inputFile = getSaveFile(context, document);
+		if (inputFile.exists()) {
+			try {
+				FileInputStream inputStream = new FileInputStream(inputFile);
+				try {
+					return PhotoDoodle.readPreview(new BufferedInputStream(inputStream), width, height);
+				} finally {
+					inputStream.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		return null;
+	}
+
 
 	/**
 	 * Set the document's modification date to now.
@@ -136,6 +194,17 @@ public class DoodleDocument extends RealmObject {
 		realm.beginTransaction();
 		doc.setModificationDate(new Date());
 		realm.commitTransaction();
+
+		// thumbnail ids include the modification time in seconds, so a second edit within the same second would
+		// otherwise find the previous edit's thumbnail
+		invalidateThumbnails(doc);
+	}
+
+	private static void invalidateThumbnails(DoodleDocument doc) {
+		DoodleThumbnailRenderer renderer = DoodleThumbnailRenderer.getInstance();
+		if (renderer != null) {
+			renderer.invalidateThumbnails(doc.getUuid());
+		}
 	}
 
 	public String getUuid() {
@@ -8,65 +8,160 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.LruCache;
 import android.util.Pair;
 
 import org.zakariya.doodle.model.PhotoDoodle;
+import org.zakariya.doodle.util.CancellationToken;
 import org.zakariya.mrdoodle.model.DoodleDocument;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.realm.Realm;
 
 /**
  * Singleton for rendering thumbnails of DoodleDocument instances
+ * <p/>
+ * Asynchronous renders are scheduled newest first, since the most recently bound items are the ones on screen
+ * during a scroll. Concurrent requests for the same thumbnail share one render, and a queued render whose
+ * requests were all canceled - e.g., because its views scrolled away - is dropped without running. Renders
+ * run on background priority threads, leaving a core for the UI. A render whose requests are all
+ * canceled after it started is stopped cooperatively, between drawing steps, via a CancellationToken.
  */
 public class DoodleThumbnailRenderer implements ComponentCallbacks2 {
 
 	private static final String TAG = DoodleThumbnailRenderer.class.getSimpleName();
+	private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+	private static final long DISK_CACHE_MAX_BYTES = 32 * 1024 * 1024;
 
 	public interface Callbacks {
 		void onThumbnailReady(Bitmap thumbnail);
 	}
 
+	/**
+	 * A request for a thumbnail. Canceling it prevents delivery to its callbacks, and if no other request wants
+	 * the same thumbnail, drops the render if it hasn't started, or stops it at its next cancellation check if it has.
+	 */
 	public class RenderTask {
-		private Future future;
+		private RenderJob job;
+		private Callbacks callbacks;
 		private boolean canceled;
 
-		public RenderTask() {
-			future = null;
-			canceled = false;
+		RenderTask(RenderJob job, Callbacks callbacks) {
+			this.job = job;
+			this.callbacks = callbacks;
 		}
 
-		synchronized public void setFuture(Future future) {
-			this.future = future;
+		public void cancel() {
+			synchronized (DoodleThumbnailRenderer.this) {
+				if (!canceled) {
+					canceled = true;
+					job.requests.remove(this);
+					if (job.requests.isEmpty()) {
+						removeRenderJob(job);
+						if (!job.started) {
+							executor.remove(job);
+							droppedRenderCount.incrementAndGet();
+						} else {
+							// nobody wants the result; stop the render at its next check
+							job.token.cancel();
+						}
+					}
+				}
+			}
 		}
 
-		synchronized public void cancel() {
-			if (!canceled) {
-				future.cancel(false);
-				canceled = true;
+		public boolean isCanceled() {
+			synchronized (DoodleThumbnailRenderer.this) {
+				return canceled;
 			}
 		}
+	}
+
+	/**
+	 * A render of one thumbnail, shared by all the requests for it
+	 */
+	private class RenderJob implements Runnable {
+		final String thumbnailId;
+		final String documentUuid;
+		final int width, height;
+		final ArrayList<RenderTask> requests = new ArrayList<>();
+		final CancellationToken token = new CancellationToken();
+		boolean started;
+
+		// set when the document's thumbnails are invalidated while the job is queued or running. Its result may
+		// predate the modification, so it's delivered to the job's requests but not cached
+		boolean invalidated;
+
+		RenderJob(String thumbnailId, String documentUuid, int width, int height) {
+			this.thumbnailId = thumbnailId;
+			this.documentUuid = documentUuid;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public void run() {
+			synchronized (DoodleThumbnailRenderer.this) {
+				if (requests.isEmpty()) {
+					// canceled after being taken off the queue, and already counted as dropped
+					return;
+				}
+				started = true;
+			}
 
-		synchronized public boolean isCanceled() {
-			return canceled;
+			performRenderThumbnail(this);
+		}
+	}
+
+	/**
+	 * Work queue which hands out the most recently queued work first
+	 */
+	private static class LifoBlockingDeque<E> extends LinkedBlockingDeque<E> {
+		@Override
+		public boolean offer(E e) {
+			return offerFirst(e);
 		}
 	}
 
 	private static DoodleThumbnailRenderer instance;
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	// work which went unused: renders dropped before starting, stopped part way, or completed for nobody
+	private final AtomicInteger droppedRenderCount = new AtomicInteger();
+	private final AtomicInteger abortedRenderCount = new AtomicInteger();
+	private final AtomicInteger wastedRenderCount = new AtomicInteger();
+	private final AtomicLong abortedRenderMillis = new AtomicLong();
+	private final AtomicLong wastedRenderMillis = new AtomicLong();
 
 	private Context context;
 	private Handler handler;
-	private ExecutorService executor;
-	private Map<String, RenderTask> tasks;
+	private ThreadPoolExecutor executor;
+	private ExecutorService diskCacheExecutor;
+	private Map<String, RenderJob> jobs;
 	private Cache cache;
+	private ThumbnailDiskCache diskCache;
+
+	// size of the most recently requested thumbnail, which documents embed a preview at when saved
+	private volatile int previewWidth, previewHeight;
 
 	public static DoodleThumbnailRenderer getInstance() {
 		return instance;
@@ -78,13 +173,29 @@ public class DoodleThumbnailRenderer implements ComponentCallbacks2 {
 
 	private DoodleThumbnailRenderer(Context context) {
 		this.context = context;
-		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-		tasks = new HashMap<>();
+		int threads = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LifoBlockingDeque<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(@NonNull final Runnable r) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, TAG + "-" + threadCount.incrementAndGet());
+			}
+		});
+		jobs = new HashMap<>();
 
 		ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
 		int maxKb = am.getMemoryClass() * 1024;
 		int limitKb = maxKb / 8; // 1/8th of total ram
 		cache = new Cache(limitKb);
+
+		// second level cache, which survives trims and restarts. Writes and deletes are serialized on their own thread
+		diskCache = new ThumbnailDiskCache(new File(context.getCacheDir(), DISK_CACHE_DIRECTORY), DISK_CACHE_MAX_BYTES);
+		diskCacheExecutor = Executors.newSingleThreadExecutor();
 	}
 
 	@Override
@@ -130,6 +241,57 @@ public class DoodleThumbnailRenderer implements ComponentCallbacks2 {
 		return TextUtils.isEmpty(id) ? null : cache.get(id);
 	}
 
+	/**
+	 * @return width of the preview image documents should embed when saved, so it can be used as a thumbnail; 0 if no thumbnail was requested yet
+	 */
+	public int getPreviewWidth() {
+		return previewWidth;
+	}
+
+	/**
+	 * @return height of the preview image documents should embed when saved; see getPreviewWidth
+	 */
+	public int getPreviewHeight() {
+		return previewHeight;
+	}
+
+	private void setPreviewSize(int width, int height) {
+		previewWidth = width;
+		previewHeight = height;
+	}
+
+	/**
+	 * Discard the cached thumbnails of a document, in memory and on disk, e.g., because it was modified or deleted
+	 *
+	 * @param documentUuid the document's uuid
+	 */
+	public void invalidateThumbnails(final String documentUuid) {
+		synchronized (this) {
+			// thumbnail ids only have second resolution, so a render in flight may share its id with the modified
+			// document's; detach it so new requests start a fresh render, and keep it from caching its result
+			for (Iterator<RenderJob> it = jobs.values().iterator(); it.hasNext(); ) {
+				RenderJob job = it.next();
+				if (job.documentUuid.equals(documentUuid)) {
+					job.invalidated = true;
+					it.remove();
+				}
+			}
+
+			for (String id : cache.snapshot().keySet()) {
+				if (id.startsWith(documentUuid)) {
+					cache.remove(id);
+				}
+			}
+
+			diskCacheExecutor.submit(new Runnable() {
+				@Override
+				public void run() {
+					diskCache.removeDocument(documentUuid);
+				}
+			});
+		}
+	}
+
 	/**
 	 * Renders a thumbnail for a given DoodleDocument synchronously, or returns existing cached one if available.
 	 *
@@ -141,10 +303,23 @@ public class DoodleThumbnailRenderer implements ComponentCallbacks2 {
 	 */
 	public Pair<Bitmap, String> renderThumbnail(Context context, DoodleDocument document, int width, int height) {
 
+		setPreviewSize(width, height);
 		String thumbnailId = getThumbnailId(document, width, height);
 		Bitmap thumbnail = cache.get(thumbnailId);
 
+		if (thumbnail == null) {
+			thumbnail = diskCache.get(thumbnailId);
+		}
+
+		if (thumbnail == null) {
+			thumbnail = DoodleDocument.loadPreview(context, document, width, height);
+			if (thumbnail != null) {
+				putInDiskCache(thumbnailId, thumbnail);
+			}
+		}
+
 		if (thumbnail != null) {
+			cache.put(thumbnailId, thumbnail);
 			return new Pair<>(thumbnail, thumbnailId);
 		} else {
 			thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
@@ -153,10 +328,11 @@ public class DoodleThumbnailRenderer implements ComponentCallbacks2 {
 
 			Realm realm = Realm.getInstance(context);
 			PhotoDoodle doodle = DoodleDocument.load(context, document);
-			doodle.draw(bitmapCanvas, width, height);
+			doodle.drawThumbnail(bitmapCanvas, width, height);
 			realm.close();
 
 			cache.put(thumbnailId, thumbnail);
+			putInDiskCache(thumbnailId, thumbnail);
 
 			return new Pair<>(thumbnail, thumbnailId);
 		}
@@ -171,7 +347,9 @@ public class DoodleThumbnailRenderer implements ComponentCallbacks2 {
 	 * @param callbacks invoked when the thumbnail is ready
 	 * @return a RenderTask which is cancelable
 	 * <p/>
-	 * If a cached version of the thumbnail exists, it will be passed immediately to the callback.
+	 * If a cached version of the thumbnail exists, it will be passed immediately to the callback. If the thumbnail
+	 * is already being rendered for another request, this request shares that render, and moves it to the front
+	 * of the queue if it hasn't started.
 	 */
 	@Nullable
 	public RenderTask renderThumbnail(final DoodleDocument document, final int width, final int height, final Callbacks callbacks) {
@@ -180,23 +358,32 @@ public class DoodleThumbnailRenderer implements ComponentCallbacks2 {
 			handler = new Handler(Looper.getMainLooper());
 		}
 
-		final String documentUuid = document.getUuid();
+		setPreviewSize(width, height);
 		final String taskId = getThumbnailId(document, width, height);
 
 		Bitmap thumbnail = cache.get(taskId);
 		if (thumbnail != null) {
 			callbacks.onThumbnailReady(thumbnail);
 			return null;
-		} else {
-			RenderTask task = new RenderTask();
-			addRenderTask(taskId, task);
+		}
 
-			task.setFuture(executor.submit(new Runnable() {
-				@Override
-				public void run() {
-					performRenderThumbnail(documentUuid, taskId, width, height, handler, callbacks);
-				}
-			}));
+		synchronized (this) {
+			RenderJob job = jobs.get(taskId);
+			if (job == null) {
+				job = new RenderJob(taskId, document.getUuid(), width, height);
+				jobs.put(taskId, job);
+				RenderTask task = new RenderTask(job, callbacks);
+				job.requests.add(task);
+				executor.execute(job);
+				return task;
+			}
+
+			RenderTask task = new RenderTask(job, callbacks);
+			job.requests.add(task);
+			if (!job.started && executor.remove(job)) {
+				// requeue as the newest work
+				executor.execute(job);
+			}
 			return task;
 		}
 	}
@@ -205,54 +392,155 @@ public class DoodleThumbnailRenderer implements ComponentCallbacks2 {
 		return documentUuid + "-mod:" + timestampSeconds + "-(w:" + width + "-h:" + height + ")";
 	}
 
-	@Nullable
-	synchronized private RenderTask getRenderTask(String taskId) {
-		return tasks.get(taskId);
-	}
-
-	synchronized private void addRenderTask(String taskId, RenderTask task) {
-		tasks.put(taskId, task);
-	}
-
-	synchronized private void clearRenderTask(String taskId) {
-		tasks.remove(taskId);
-	}
-
-	private void performRenderThumbnail(String documentUuid, final String taskId, int width, int height, Handler handler, final Callbacks callbacks) {
-
+	private void performRenderThumbnail(final RenderJob job) {
+		final String documentUuid = job.documentUuid;
+		final String taskId = job.thumbnailId;
+		final int width = job.width;
+		final int height = job.height;
+		final CancellationToken token = job.token;
+		final long startTime = SystemClock.elapsedRealtime();
+
+		Realm realm = null;
+		Bitmap thumbnail = null;
+		PhotoDoodle doodle = null;
+		boolean rendered = false;
 		try {
-			final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-			bitmap.eraseColor(0xFFFFFFFF);
-			Canvas bitmapCanvas = new Canvas(bitmap);
-
-			Realm realm = Realm.getInstance(context);
-			DoodleDocument document = DoodleDocument.byUUID(realm, documentUuid);
-			PhotoDoodle doodle = DoodleDocument.load(context, document);
-			doodle.draw(bitmapCanvas, width, height);
-			realm.close();
-
-			// cache it
-			cache.put(taskId, bitmap);
+			// a decode from the disk cache is much cheaper than a load and render
+			thumbnail = diskCache.get(taskId);
+			final boolean fromDiskCache = thumbnail != null;
+			if (!fromDiskCache) {
+				CancellationToken.check(token);
+				realm = Realm.getInstance(context);
+				DoodleDocument document = DoodleDocument.byUUID(realm, documentUuid);
+
+				// next cheapest is the preview embedded in the document's header, if it was saved at this size
+				thumbnail = DoodleDocument.loadPreview(context, document, width, height);
+				if (thumbnail == null) {
+					CancellationToken.check(token);
+					doodle = DoodleDocument.load(context, document, token);
+
+					thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+					thumbnail.eraseColor(0xFFFFFFFF);
+					Canvas bitmapCanvas = new Canvas(thumbnail);
+					doodle.drawThumbnail(bitmapCanvas, width, height, token);
+				}
+			}
+			rendered = true;
+
+			// cache it, unless the document was modified since the render began. Checked under the lock, so an
+			// invalidation either precedes the puts and prevents them, or follows them and removes their entries
+			final Bitmap bitmap = thumbnail;
+			synchronized (this) {
+				if (!job.invalidated) {
+					cache.put(taskId, bitmap);
+					if (!fromDiskCache) {
+						putInDiskCache(taskId, bitmap);
+					}
+				}
+			}
 
 			// notify on main thread
 			handler.post(new Runnable() {
 				@Override
 				public void run() {
-					RenderTask task = getRenderTask(taskId);
-					if (task != null) {
-						if (!task.isCanceled()) {
-							//Log.i(TAG, "performRenderThumbnail: run: sending bitmap to callback");
-							callbacks.onThumbnailReady(bitmap);
-						}
-						clearRenderTask(taskId);
+					ArrayList<RenderTask> requests;
+					synchronized (DoodleThumbnailRenderer.this) {
+						removeRenderJob(job);
+						requests = new ArrayList<>(job.requests);
+					}
+
+					// canceled requests were removed from the job
+					if (requests.isEmpty()) {
+						wastedRenderCount.incrementAndGet();
+						wastedRenderMillis.addAndGet(SystemClock.elapsedRealtime() - startTime);
+					}
+
+					for (RenderTask task : requests) {
+						//Log.i(TAG, "performRenderThumbnail: run: sending bitmap to callback");
+						task.callbacks.onThumbnailReady(bitmap);
 					}
 				}
 			});
+		} catch (CancellationException e) {
+			abortedRenderCount.incrementAndGet();
+			abortedRenderMillis.addAndGet(SystemClock.elapsedRealtime() - startTime);
+			synchronized (this) {
+				removeRenderJob(job);
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
+			synchronized (this) {
+				removeRenderJob(job);
+			}
+		} finally {
+			if (realm != null) {
+				realm.close();
+			}
+
+			// the photo is only needed for the render, and a partial thumbnail not at all
+			if (doodle != null && doodle.getPhoto() != null) {
+				doodle.getPhoto().recycle();
+			}
+			if (!rendered && thumbnail != null) {
+				thumbnail.recycle();
+			}
+		}
+	}
+
+	/**
+	 * Remove a job from the map of jobs new requests can join, unless it was already replaced
+	 */
+	private void removeRenderJob(RenderJob job) {
+		if (jobs.get(job.thumbnailId) == job) {
+			jobs.remove(job.thumbnailId);
 		}
 	}
 
+	/**
+	 * @return number of renders dropped from the queue before starting, because their requests were canceled
+	 */
+	public int getDroppedRenderCount() {
+		return droppedRenderCount.get();
+	}
+
+	/**
+	 * @return number of renders stopped part way, because their requests were canceled
+	 */
+	public int getAbortedRenderCount() {
+		return abortedRenderCount.get();
+	}
+
+	/**
+	 * @return time spent on aborted renders before they stopped
+	 */
+	public long getAbortedRenderMillis() {
+		return abortedRenderMillis.get();
+	}
+
+	/**
+	 * @return number of renders which completed after their requests were canceled, too late to be aborted.
+	 * Their thumbnails were still cached.
+	 */
+	public int getWastedRenderCount() {
+		return wastedRenderCount.get();
+	}
+
+	/**
+	 * @return time spent on wasted renders
+	 */
+	public long getWastedRenderMillis() {
+		return wastedRenderMillis.get();
+	}
+
+	private void putInDiskCache(final String thumbnailId, final Bitmap thumbnail) {
+		diskCacheExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				diskCache.put(thumbnailId, thumbnail);
+			}
+		});
+	}
+
 	private class Cache extends LruCache<String, Bitmap> {
 		public Cache(int maxSize) {
 			super(maxSize);
@@ -0,0 +1,200 @@
+package org.zakariya.mrdoodle.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Size bounded disk cache of thumbnail bitmaps, stored as PNGs in a private directory, keyed by thumbnail id
+ * (see DoodleThumbnailRenderer.getThumbnailId). Entries are written to a temp file and renamed into place, so
+ * a reader never sees a partial file. When the cache exceeds its size, the least recently used entries
+ * (by file modification time, which get() touches) are deleted first.
+ */
+public class ThumbnailDiskCache {
+
+	private static final String TAG = ThumbnailDiskCache.class.getSimpleName();
+	private static final String SUFFIX = ".png";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private File directory;
+	private long maxBytes;
+	private long byteCount = -1;
+
+	/**
+	 * @param directory directory to hold the cache's files; created if needed
+	 * @param maxBytes  max total size of the cache's files
+	 */
+	public ThumbnailDiskCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Load a thumbnail
+	 *
+	 * @param id the thumbnail's id
+	 * @return the thumbnail, or null if it isn't cached or couldn't be read
+	 */
+	@Nullable
+	synchronized public Bitmap get(String id) {
+		File file = getFile(id);
+		if (!file.exists()) {
+			return null;
+		}
+
+		Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+		if (bitmap != null) {
+			//noinspection ResultOfMethodCallIgnored
+			file.setLastModified(System.currentTimeMillis());
+		} else {
+			// unreadable, drop it
+			remove(file);
+		}
+
+		return bitmap;
+	}
+
+	/**
+	 * Store a thumbnail, replacing any with the same id, then evict old entries to fit the size limit
+	 *
+	 * @param id        the thumbnail's id
+	 * @param thumbnail the thumbnail
+	 */
+	synchronized public void put(String id, Bitmap thumbnail) {
+		if (!directory.exists() && !directory.mkdirs()) {
+			Log.e(TAG, "Unable to create thumbnail cache directory " + directory);
+			return;
+		}
+
+		// count the existing entries before this one lands
+		getByteCount();
+
+		File file = getFile(id);
+		File tempFile = new File(directory, file.getName() + TEMP_SUFFIX);
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+			try {
+				thumbnail.compress(Bitmap.CompressFormat.PNG, 100, out);
+			} finally {
+				out.close();
+			}
+
+			remove(file);
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Unable to rename " + tempFile + " to " + file);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			//noinspection ResultOfMethodCallIgnored
+			tempFile.delete();
+			return;
+		}
+
+		byteCount += file.length();
+		trimToSize(maxBytes);
+	}
+
+	/**
+	 * Delete every thumbnail of a document
+	 *
+	 * @param documentUuid the document's uuid, which thumbnail ids begin with
+	 */
+	synchronized public void removeDocument(String documentUuid) {
+		final String prefix = toFileName(documentUuid);
+		for (File file : listFiles()) {
+			if (file.getName().startsWith(prefix)) {
+				remove(file);
+			}
+		}
+	}
+
+	/**
+	 * Delete all thumbnails
+	 */
+	synchronized public void clear() {
+		for (File file : listFiles()) {
+			remove(file);
+		}
+	}
+
+	/**
+	 * @return total size of the cache's files
+	 */
+	synchronized public long getByteCount() {
+		if (byteCount < 0) {
+			byteCount = 0;
+			for (File file : listFiles()) {
+				byteCount += file.length();
+			}
+		}
+		return byteCount;
+	}
+
+	/**
+	 * Delete least recently used thumbnails until the cache's files total no more than maxBytes
+	 *
+	 * @param maxBytes the size to trim to
+	 */
+	synchronized public void trimToSize(long maxBytes) {
+		if (getByteCount() <= maxBytes) {
+			return;
+		}
+
+		File files[] = listFiles();
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = lhs.lastModified(), r = rhs.lastModified();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+
+		for (int i = 0; i < files.length && byteCount > maxBytes; i++) {
+			remove(files[i]);
+		}
+	}
+
+	private void remove(File file) {
+		long length = file.length();
+		if (file.delete() && byteCount >= 0) {
+			byteCount = Math.max(byteCount - length, 0);
+		}
+	}
+
+	private File[] listFiles() {
+		File files[] = directory.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+
+		// temp files left by an interrupted put are deleted, not counted
+		int count = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(SUFFIX)) {
+				files[count++] = file;
+			} else if (file.getName().endsWith(TEMP_SUFFIX)) {
+				//noinspection ResultOfMethodCallIgnored
+				file.delete();
+			}
+		}
+
+		return Arrays.copyOf(files, count);
+	}
+
+	private File getFile(String id) {
+		return new File(directory, toFileName(id) + SUFFIX);
+	}
+
+	private static String toFileName(String id) {
+		return id.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+}
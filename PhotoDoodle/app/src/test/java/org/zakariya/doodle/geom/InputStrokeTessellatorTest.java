@@ -0,0 +1,68 @@
+package org.zakariya.doodle.geom;
+
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.zakariya.mrdoodle.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class InputStrokeTessellatorTest {
+
+	private static final float WIDTH = 4;
+
+	private static InputStroke createStroke(float... positions) {
+		InputStroke inputStroke = new InputStroke();
+		for (int i = 0; i < positions.length; i += 2) {
+			inputStroke.append(positions[i], positions[i + 1], i * 8, 0, true);
+		}
+		return inputStroke;
+	}
+
+	private static boolean hasVertex(Outline outline, float x, float y) {
+		float vertices[] = outline.getVertices();
+		for (int i = 0, n = outline.getVertexCount() * 2; i < n; i += 2) {
+			if (Math.abs(vertices[i] - x) < 1e-3 && Math.abs(vertices[i + 1] - y) < 1e-3) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void shortFinalSegmentReachesEndOfStroke() {
+		// at scale 0.1 every curve of this stroke flattens to a single subdivision
+		InputStroke inputStroke = createStroke(0, 0, 0, 10, 4, 10);
+		InputStrokeTessellator tessellator = new InputStrokeTessellator(inputStroke, WIDTH, WIDTH, 1);
+		tessellator.setSubdivisionTolerance(InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, 0.1f);
+
+		Outline outline = tessellator.tessellate(0, 2, false, false, false, new Outline());
+		RectF bounds = outline.getBounds();
+		assertEquals(4, bounds.right, 1e-3);
+
+		// the final segment's end attach points, a radius either side of the last point
+		assertTrue(hasVertex(outline, 4, 12));
+		assertTrue(hasVertex(outline, 4, 8));
+
+		outline = tessellator.tessellate(0, 2, false, true, true, new Outline());
+		assertEquals(6, outline.getBounds().right, 1e-3);
+	}
+
+	@Test
+	public void reportCountsEmittedVertices() {
+		InputStroke inputStroke = createStroke(0, 0, 0, 10, 4, 10, 30, 40, 60, 20);
+		float scales[] = {0.1f, 1, 8};
+		for (float scale : scales) {
+			InputStrokeTessellator tessellator = new InputStrokeTessellator(inputStroke, WIDTH, WIDTH, 1);
+			tessellator.setSubdivisionTolerance(InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, scale);
+			Outline outline = tessellator.tessellate(0, inputStroke.size() - 1, false, false, false, new Outline());
+			assertEquals(outline.getVertexCount(), tessellator.getReport().getVertexCount());
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package org.zakariya.doodle.geom;
+
+import android.graphics.RectF;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.zakariya.mrdoodle.BuildConfig;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class InputStrokeTest {
+
+	private static InputStroke createStroke(int count) {
+		InputStroke inputStroke = new InputStroke();
+		for (int i = 0; i < count; i++) {
+			inputStroke.append(i * 3.5f, (float) Math.sin(i) * 20, 1000 + i * 8, i * 0.25f, i % 3 == 0);
+		}
+		return inputStroke;
+	}
+
+	private static InputStroke read(Kryo kryo, byte bytes[]) {
+		Input input = new Input(bytes);
+		InputStroke inputStroke = new InputStroke();
+		inputStroke.read(kryo, input);
+		assertEquals(bytes.length, input.position());
+		return inputStroke;
+	}
+
+	private static void assertStrokeEquals(InputStroke expected, InputStroke actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getX(i), actual.getX(i), 0);
+			assertEquals(expected.getY(i), actual.getY(i), 0);
+			assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+			assertEquals(expected.getVelocity(i), actual.getVelocity(i), 0);
+		}
+		assertEquals(expected.computeBoundingRect(), actual.getBoundingRect());
+	}
+
+	@Test
+	public void kryoRoundTrip() {
+		Kryo kryo = new Kryo();
+		InputStroke inputStroke = createStroke(100);
+
+		Output output = new Output(1024, -1);
+		inputStroke.write(kryo, output);
+		InputStroke copy = read(kryo, output.toBytes());
+		assertStrokeEquals(inputStroke, copy);
+
+		// the copy is still appendable
+		copy.append(1, 2, 3, 4, false);
+		assertEquals(inputStroke.size() + 1, copy.size());
+	}
+
+	@Test
+	public void kryoLayoutIsUnchanged() {
+		// version 1 is written column by column, a value at a time
+		Kryo kryo = new Kryo();
+		InputStroke inputStroke = createStroke(40);
+
+		Output expected = new Output(1024, -1);
+		expected.writeInt(InputStroke.SERIALIZATION_VERSION);
+		expected.writeInt(inputStroke.size());
+		for (int i = 0; i < inputStroke.size(); i++) {
+			expected.writeFloat(inputStroke.getX(i));
+		}
+		for (int i = 0; i < inputStroke.size(); i++) {
+			expected.writeFloat(inputStroke.getY(i));
+		}
+		for (int i = 0; i < inputStroke.size(); i++) {
+			expected.writeFloat(inputStroke.getVelocity(i));
+		}
+		for (int i = 0; i < inputStroke.size(); i++) {
+			expected.writeLong(inputStroke.getTimestamp(i));
+		}
+		for (int i = 0; i < inputStroke.size(); i++) {
+			expected.writeBoolean(i % 3 == 0);
+		}
+
+		Output actual = new Output(1024, -1);
+		inputStroke.write(kryo, actual);
+		assertArrayEquals(expected.toBytes(), actual.toBytes());
+	}
+
+	@Test
+	public void readsVersion0() {
+		// version 0 stored a count followed by Point objects
+		Kryo kryo = new Kryo();
+		InputStroke inputStroke = createStroke(25);
+
+		Output output = new Output(1024, -1);
+		output.writeInt(0);
+		output.writeInt(inputStroke.size());
+		for (int i = 0; i < inputStroke.size(); i++) {
+			InputStroke.Point p = new InputStroke.Point(inputStroke.getX(i), inputStroke.getY(i), inputStroke.getTimestamp(i));
+			p.velocity = inputStroke.getVelocity(i);
+			p.freezeVelocity = i % 3 == 0;
+			kryo.writeObject(output, p);
+		}
+
+		assertStrokeEquals(inputStroke, read(kryo, output.toBytes()));
+	}
+
+	private static InputStroke createLine(float... positions) {
+		InputStroke inputStroke = new InputStroke();
+		for (int i = 0; i < positions.length; i += 2) {
+			inputStroke.append(positions[i], positions[i + 1], i * 50, i * 5, true);
+		}
+		return inputStroke;
+	}
+
+	private static void assertPoint(InputStroke inputStroke, int i, float x, float y, long timestamp, float velocity) {
+		assertEquals(x, inputStroke.getX(i), 1e-3);
+		assertEquals(y, inputStroke.getY(i), 1e-3);
+		assertEquals(timestamp, inputStroke.getTimestamp(i));
+		assertEquals(velocity, inputStroke.getVelocity(i), 1e-3);
+	}
+
+	@Test
+	public void cutSplitsSegmentWithNoPointsInCapsule() {
+		// a simplified straight run: neither point is near the eraser, which crosses the middle of the segment
+		InputStroke inputStroke = createLine(0, 0, 100, 0);
+		ArrayList<InputStroke> pieces = inputStroke.cut(50, -20, 50, 20, 5);
+
+		assertEquals(2, pieces.size());
+		assertEquals(2, pieces.get(0).size());
+		assertPoint(pieces.get(0), 0, 0, 0, 0, 0);
+		assertPoint(pieces.get(0), 1, 45, 0, 45, 4.5f);
+		assertEquals(2, pieces.get(1).size());
+		assertPoint(pieces.get(1), 0, 55, 0, 55, 5.5f);
+		assertPoint(pieces.get(1), 1, 100, 0, 100, 10);
+		assertEquals(new RectF(54.5f, -0.5f, 100, 0.5f), pieces.get(1).getBoundingRect());
+	}
+
+	@Test
+	public void cutAroundPointKeepsBothSides() {
+		InputStroke inputStroke = createLine(0, 0, 10, 0, 20, 0, 30, 0);
+		ArrayList<InputStroke> pieces = inputStroke.cut(10, 0, 10, 0, 2);
+
+		assertEquals(2, pieces.size());
+		assertEquals(2, pieces.get(0).size());
+		assertPoint(pieces.get(0), 1, 8, 0, 80, 8);
+		assertEquals(3, pieces.get(1).size());
+		assertPoint(pieces.get(1), 0, 12, 0, 120, 12);
+		assertPoint(pieces.get(1), 1, 20, 0, 200, 20);
+		assertPoint(pieces.get(1), 2, 30, 0, 300, 30);
+	}
+
+	@Test
+	public void cutAtEndTrimsStroke() {
+		InputStroke inputStroke = createLine(0, 0, 10, 0, 20, 0);
+		ArrayList<InputStroke> pieces = inputStroke.cut(25, -10, 25, 10, 10);
+
+		assertEquals(1, pieces.size());
+		assertEquals(3, pieces.get(0).size());
+		assertPoint(pieces.get(0), 2, 15, 0, 150, 15);
+	}
+
+	@Test
+	public void cutByCapsuleEnd() {
+		// the capsule stops short of the stroke; only its round end at b reaches it
+		InputStroke inputStroke = createLine(0, 0, 100, 0);
+		ArrayList<InputStroke> pieces = inputStroke.cut(50, 20, 50, 4, 6);
+
+		assertEquals(2, pieces.size());
+		assertEquals(50 - (float) Math.sqrt(20), pieces.get(0).getX(1), 1e-3);
+		assertEquals(50 + (float) Math.sqrt(20), pieces.get(1).getX(0), 1e-3);
+	}
+
+	@Test
+	public void cutMissOrCover() {
+		InputStroke inputStroke = createLine(0, 0, 10, 0, 20, 0);
+		assertNull(inputStroke.cut(0, 10, 20, 10, 5));
+		assertTrue(inputStroke.cut(-10, 0, 30, 0, 5).isEmpty());
+
+		InputStroke point = createLine(5, 5);
+		assertNull(point.cut(0, 0, 0, 10, 2));
+		assertTrue(point.cut(0, 0, 10, 10, 2).isEmpty());
+	}
+}
@@ -0,0 +1,74 @@
+package org.zakariya.doodle.geom;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.zakariya.mrdoodle.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static org.junit.Assume.assumeTrue;
+import static org.zakariya.doodle.geom.TessellationFixtures.createJobs;
+
+/**
+ * Times replay tessellation of 1k and 10k stroke documents at several parallelism levels, reporting each level's
+ * speedup over parallelism 1. Skipped unless benchmarks are requested, e.g., ./gradlew testDebugUnitTest -Pbenchmark
+ * --tests '*Benchmark'. Output equivalence is checked by ParallelStrokeTessellatorTest.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ParallelStrokeTessellatorBenchmark {
+
+	private static final int PARALLELISMS[] = {1, 2, 4};
+	private static final int ITERATIONS = 5;
+	private static final float SCALE = 1.5f;
+
+	@Before
+	public void setUp() {
+		assumeTrue(Boolean.getBoolean("doodle.benchmark"));
+	}
+
+	/**
+	 * @return the best of several timed runs, in nanoseconds, after a warm up run
+	 */
+	private static long time(int parallelism, ArrayList<ParallelStrokeTessellator.Job> jobs) {
+		ParallelStrokeTessellator tessellator = new ParallelStrokeTessellator(parallelism);
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i <= ITERATIONS; i++) {
+			long start = System.nanoTime();
+			tessellator.tessellate(jobs, InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, SCALE);
+			if (i > 0) {
+				best = Math.min(best, System.nanoTime() - start);
+			}
+		}
+		tessellator.shutdown();
+		return best;
+	}
+
+	private static void benchmark(int strokeCount) {
+		ArrayList<ParallelStrokeTessellator.Job> jobs = createJobs(strokeCount, strokeCount);
+		long serial = 0;
+		for (int parallelism : PARALLELISMS) {
+			long nanos = time(parallelism, jobs);
+			if (parallelism == 1) {
+				serial = nanos;
+			}
+
+			System.out.println(String.format(Locale.US, "ParallelStrokeTessellator: %d strokes, parallelism %d: %.2f ms, %.2fx speedup (%d processors)",
+					strokeCount, parallelism, nanos / 1e6, (double) serial / nanos, Runtime.getRuntime().availableProcessors()));
+		}
+	}
+
+	@Test
+	public void benchmark1kStrokes() {
+		benchmark(1000);
+	}
+
+	@Test
+	public void benchmark10kStrokes() {
+		benchmark(10000);
+	}
+}
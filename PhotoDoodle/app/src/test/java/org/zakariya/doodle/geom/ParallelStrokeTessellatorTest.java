@@ -0,0 +1,90 @@
+package org.zakariya.doodle.geom;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.zakariya.mrdoodle.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.zakariya.doodle.geom.TessellationFixtures.assertOutlinesEqual;
+import static org.zakariya.doodle.geom.TessellationFixtures.createJobs;
+
+/**
+ * Checks ParallelStrokeTessellator produces the same outlines at any parallelism. See ParallelStrokeTessellatorBenchmark for timings.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ParallelStrokeTessellatorTest {
+
+	private static final int STROKE_COUNT = 200;
+	private static final float SCALE = 1.5f;
+
+	private static void tessellate(ParallelStrokeTessellator tessellator, ArrayList<ParallelStrokeTessellator.Job> jobs) {
+		tessellator.tessellate(jobs, InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, SCALE);
+	}
+
+	@Test
+	public void parallelMatchesSerial() {
+		ArrayList<ParallelStrokeTessellator.Job> expected = createJobs(0, STROKE_COUNT);
+		tessellate(new ParallelStrokeTessellator(1), expected);
+
+		int parallelisms[] = {2, 4};
+		for (int parallelism : parallelisms) {
+			ParallelStrokeTessellator tessellator = new ParallelStrokeTessellator(parallelism);
+			ArrayList<ParallelStrokeTessellator.Job> jobs = createJobs(0, STROKE_COUNT);
+			tessellate(tessellator, jobs);
+			tessellator.shutdown();
+
+			assertEquals(expected.size(), jobs.size());
+			for (int i = 0; i < jobs.size(); i++) {
+				assertNotNull(jobs.get(i).getResult());
+				assertOutlinesEqual(expected.get(i).getResult(), jobs.get(i).getResult());
+			}
+		}
+	}
+
+	@Test
+	public void parallelismMayChangeWhileBatchesRun() throws InterruptedException {
+		// a shared tessellator, as the doodles' replay tessellator is shared by the UI thread and thumbnail workers
+		final ParallelStrokeTessellator tessellator = new ParallelStrokeTessellator(4);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread reconfigure = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; !done.get(); i++) {
+						tessellator.setParallelism(2 + i % 3);
+						Thread.yield();
+					}
+				} catch (Throwable t) {
+					failure.set(t);
+				}
+			}
+		});
+
+		ArrayList<ParallelStrokeTessellator.Job> jobs = createJobs(0, 4);
+		reconfigure.start();
+		try {
+			for (int i = 0; i < 5000; i++) {
+				tessellate(tessellator, jobs);
+			}
+		} finally {
+			done.set(true);
+			reconfigure.join();
+		}
+
+		for (ParallelStrokeTessellator.Job job : jobs) {
+			assertNotNull(job.getResult());
+		}
+
+		assertNull(failure.get());
+	}
+}
@@ -0,0 +1,90 @@
+package org.zakariya.doodle.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Stroke fixtures and outline assertions shared by the tessellation tests
+ */
+final class TessellationFixtures {
+
+	private TessellationFixtures() {
+	}
+
+	/**
+	 * A pen wandering across the canvas, as a digitizer samples it: steps of 2 to 12 units, every 4 to 7 ms
+	 */
+	static final class RandomWalk {
+		private final Random random;
+		float x, y, heading;
+		long timestamp = 1000;
+
+		RandomWalk(Random random, float x, float y, float heading) {
+			this.random = random;
+			this.x = x;
+			this.y = y;
+			this.heading = heading;
+		}
+
+		void step() {
+			heading += (random.nextFloat() - 0.5f) * 0.8f;
+			float step = 2 + random.nextFloat() * 10;
+			x += Math.cos(heading) * step;
+			y += Math.sin(heading) * step;
+			timestamp += 4 + random.nextInt(4);
+		}
+	}
+
+	/**
+	 * Build a document's worth of finished strokes of 20 to 100 points, scattered over a 1000 unit square,
+	 * as replay tessellation jobs with assorted brush widths
+	 */
+	static ArrayList<ParallelStrokeTessellator.Job> createJobs(long seed, int strokeCount) {
+		Random random = new Random(seed);
+		ArrayList<ParallelStrokeTessellator.Job> jobs = new ArrayList<>(strokeCount);
+		for (int i = 0; i < strokeCount; i++) {
+			RandomWalk walk = new RandomWalk(random, random.nextFloat() * 1000, random.nextFloat() * 1000, random.nextFloat() * 6.28f);
+			InputStroke inputStroke = new InputStroke();
+			for (int j = 0, n = 20 + random.nextInt(81); j < n; j++) {
+				walk.step();
+				inputStroke.add(walk.x, walk.y, walk.timestamp);
+			}
+			inputStroke.finish();
+
+			float minWidth = 1 + random.nextFloat() * 4;
+			jobs.add(new ParallelStrokeTessellator.Job(inputStroke, minWidth, minWidth * 4, 1000));
+		}
+		return jobs;
+	}
+
+	static void assertStrokesEqual(ArrayList<InputStroke> expected, ArrayList<InputStroke> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			InputStroke e = expected.get(i);
+			InputStroke a = actual.get(i);
+			assertEquals(e.size(), a.size());
+			for (int j = 0; j < e.size(); j++) {
+				assertEquals(e.getX(j), a.getX(j), 0);
+				assertEquals(e.getY(j), a.getY(j), 0);
+				assertEquals(e.getTimestamp(j), a.getTimestamp(j));
+				assertEquals(e.getVelocity(j), a.getVelocity(j), 0);
+			}
+		}
+	}
+
+	static void assertOutlinesEqual(Outline expected, Outline actual) {
+		assertEquals(expected.getContourCount(), actual.getContourCount());
+		assertEquals(expected.getVertexCount(), actual.getVertexCount());
+		assertEquals(expected.getCircleCount(), actual.getCircleCount());
+
+		int vertexFloats = expected.getVertexCount() * 2;
+		assertArrayEquals(Arrays.copyOf(expected.getVertices(), vertexFloats), Arrays.copyOf(actual.getVertices(), vertexFloats), 0);
+
+		int circleFloats = expected.getCircleCount() * 3;
+		assertArrayEquals(Arrays.copyOf(expected.getCircles(), circleFloats), Arrays.copyOf(actual.getCircles(), circleFloats), 0);
+	}
+}
@@ -0,0 +1,202 @@
+package org.zakariya.doodle.geom;
+
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.zakariya.doodle.geom.TessellationFixtures.RandomWalk;
+import org.zakariya.mrdoodle.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.zakariya.doodle.geom.TessellationFixtures.assertOutlinesEqual;
+import static org.zakariya.doodle.geom.TessellationFixtures.assertStrokesEqual;
+
+/**
+ * Replays recorded sample batches through IncrementalInputStrokeTessellator on the test thread and through
+ * TessellationPipeline on its worker, and checks both produce the same strokes and outlines.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TessellationPipelineTest {
+
+	private static final float OPTIMIZATION_THRESHOLD = 7;
+	private static final float MIN_WIDTH = 1;
+	private static final float MAX_WIDTH = 16;
+	private static final float MAX_VEL_DPPS = 1000;
+	private static final float SCALE = 1.5f;
+
+	/**
+	 * A stroke recorded as MotionEvent-like batches of samples
+	 */
+	static class Recording {
+		ArrayList<float[]> positions = new ArrayList<>();
+		ArrayList<long[]> timestamps = new ArrayList<>();
+
+		/**
+		 * Record a wandering stroke of `count samples in batches of 1 to 8, as a digitizer sampling faster than
+		 * the display delivers them
+		 */
+		static Recording random(long seed, int count) {
+			Random random = new Random(seed);
+			Recording recording = new Recording();
+			RandomWalk walk = new RandomWalk(random, 0, 0, 0);
+			for (int i = 0; i < count; ) {
+				int batchSize = Math.min(1 + random.nextInt(8), count - i);
+				float positions[] = new float[batchSize * 2];
+				long timestamps[] = new long[batchSize];
+				for (int j = 0; j < batchSize; j++, i++) {
+					walk.step();
+					positions[j * 2] = walk.x;
+					positions[j * 2 + 1] = walk.y;
+					timestamps[j] = walk.timestamp;
+				}
+
+				recording.positions.add(positions);
+				recording.timestamps.add(timestamps);
+			}
+
+			return recording;
+		}
+	}
+
+	/**
+	 * Collects what IncrementalInputStrokeTessellator emits when run synchronously
+	 */
+	static class SynchronousListener implements IncrementalInputStrokeTessellator.OutlineListener {
+		ArrayList<Outline> staticOutlines = new ArrayList<>();
+
+		@Override
+		public void onInputStrokeModified(InputStroke inputStroke, int startIndex, int endIndex, RectF rect) {
+		}
+
+		@Override
+		public void onLivePathModified(Path path, RectF rect) {
+		}
+
+		@Override
+		public void onNewStaticPathAvailable(Path path, RectF rect) {
+		}
+
+		@Override
+		public void onLiveOutlineModified(Outline outline, RectF rect) {
+		}
+
+		@Override
+		public void onNewStaticOutlineAvailable(Outline outline, RectF rect) {
+			staticOutlines.add(outline);
+		}
+
+		@Override
+		public float getInputStrokeOptimizationThreshold() {
+			return OPTIMIZATION_THRESHOLD;
+		}
+
+		@Override
+		public float getStrokeMinWidth() {
+			return MIN_WIDTH;
+		}
+
+		@Override
+		public float getStrokeMaxWidth() {
+			return MAX_WIDTH;
+		}
+
+		@Override
+		public float getStrokeMaxVelDPps() {
+			return MAX_VEL_DPPS;
+		}
+	}
+
+	/**
+	 * Collects what TessellationPipeline emits
+	 */
+	static class PipelineConsumer implements TessellationPipeline.Consumer<Integer> {
+		ArrayList<Outline> staticOutlines = new ArrayList<>();
+		ArrayList<InputStroke> inputStrokes;
+		Integer finishedTag;
+
+		@Override
+		public void onStaticOutline(Integer tag, Outline outline, RectF rect) {
+			staticOutlines.add(outline);
+		}
+
+		@Override
+		public void onStrokeFinished(Integer tag, ArrayList<InputStroke> inputStrokes, boolean hasStaticOutlines) {
+			this.inputStrokes = inputStrokes;
+			finishedTag = tag;
+		}
+	}
+
+	static class Listener implements TessellationPipeline.Listener {
+		@Override
+		public void onTessellationAvailable() {
+		}
+	}
+
+	@Test
+	public void pipelineMatchesSynchronousTessellation() {
+		for (long seed = 0; seed < 8; seed++) {
+			Recording recording = Recording.random(seed, 1000 + (int) seed * 250);
+
+			SynchronousListener synchronousListener = new SynchronousListener();
+			IncrementalInputStrokeTessellator tessellator = new IncrementalInputStrokeTessellator(synchronousListener);
+			tessellator.setSubdivisionTolerance(InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, SCALE);
+			for (int i = 0; i < recording.positions.size(); i++) {
+				tessellator.add(recording.positions.get(i), recording.timestamps.get(i), recording.timestamps.get(i).length);
+			}
+			tessellator.finish();
+
+			Listener listener = new Listener();
+			TessellationPipeline<Integer> pipeline = new TessellationPipeline<>(listener);
+			pipeline.begin((int) seed, OPTIMIZATION_THRESHOLD, MIN_WIDTH, MAX_WIDTH, MAX_VEL_DPPS, InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, SCALE);
+			for (int i = 0; i < recording.positions.size(); i++) {
+				pipeline.add(recording.positions.get(i), recording.timestamps.get(i), recording.timestamps.get(i).length);
+			}
+			pipeline.finish();
+			pipeline.awaitIdle();
+
+			PipelineConsumer consumer = new PipelineConsumer();
+			pipeline.collect(consumer);
+			assertEquals(Integer.valueOf((int) seed), consumer.finishedTag);
+			assertNull(pipeline.getLiveOutline());
+
+			assertStrokesEqual(tessellator.getInputStrokes(), consumer.inputStrokes);
+
+			assertTrue(synchronousListener.staticOutlines.size() > 1);
+			assertEquals(synchronousListener.staticOutlines.size(), consumer.staticOutlines.size());
+			for (int i = 0; i < consumer.staticOutlines.size(); i++) {
+				assertOutlinesEqual(synchronousListener.staticOutlines.get(i), consumer.staticOutlines.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void awaitIdleWaitsForMoreThanARingOfSamples() {
+		// more samples than the ring buffer holds, so publishing has to wait for the worker too
+		Recording recording = Recording.random(42, 10000);
+		TessellationPipeline<Integer> pipeline = new TessellationPipeline<>(new Listener());
+
+		pipeline.begin(0, OPTIMIZATION_THRESHOLD, MIN_WIDTH, MAX_WIDTH, MAX_VEL_DPPS, InputStrokeTessellator.DEFAULT_SUBDIVISION_TOLERANCE, SCALE);
+		int sampleCount = 0;
+		for (int i = 0; i < recording.positions.size(); i++) {
+			pipeline.add(recording.positions.get(i), recording.timestamps.get(i), recording.timestamps.get(i).length);
+			sampleCount += recording.timestamps.get(i).length;
+		}
+		pipeline.finish();
+		pipeline.awaitIdle();
+
+		PipelineConsumer consumer = new PipelineConsumer();
+		pipeline.collect(consumer);
+		assertEquals(1, consumer.inputStrokes.size());
+		assertTrue(consumer.inputStrokes.get(0).size() > 1);
+		assertTrue(consumer.inputStrokes.get(0).size() <= sampleCount);
+	}
+}
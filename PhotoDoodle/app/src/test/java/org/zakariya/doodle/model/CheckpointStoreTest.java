@@ -0,0 +1,104 @@
+package org.zakariya.doodle.model;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.zakariya.doodle.util.TiledBitmap;
+import org.zakariya.mrdoodle.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class CheckpointStoreTest {
+
+	private static final int TILE_SIZE = 16;
+	private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+	/**
+	 * @return a snapshot of a layer one tile high with its first tileCount tiles painted
+	 */
+	private static TiledBitmap.Snapshot createSnapshot(int tileCount) {
+		TiledBitmap layer = new TiledBitmap(TILE_SIZE);
+		layer.resize(TILE_SIZE * 8, TILE_SIZE);
+		if (tileCount > 0) {
+			// inset so antialiasing slop doesn't reach the neighboring tiles
+			RectF bounds = new RectF(2, 2, tileCount * TILE_SIZE - 2, TILE_SIZE - 2);
+			Path path = new Path();
+			path.addRect(bounds, Path.Direction.CW);
+			layer.drawPath(path, bounds, new Paint(), true);
+		}
+
+		TiledBitmap.Snapshot snapshot = layer.snapshot();
+		layer.recycle();
+		return snapshot;
+	}
+
+	@Test
+	public void getNearestFindsCheckpointAtOrBeforeStep() {
+		CheckpointStore store = new CheckpointStore(Integer.MAX_VALUE);
+		assertNull(store.getNearest(10));
+		assertEquals(0, store.getLatestStepIndex());
+
+		store.add(0, createSnapshot(0));
+		store.add(4, createSnapshot(1));
+		store.add(8, createSnapshot(2));
+
+		assertEquals(3, store.size());
+		assertEquals(8, store.getLatestStepIndex());
+		assertEquals(3 * TILE_BYTES, store.getByteCount());
+		assertNull(store.getNearest(-1));
+		assertEquals(0, store.getNearest(3).getStepIndex());
+		assertEquals(4, store.getNearest(4).getStepIndex());
+		assertEquals(4, store.getNearest(7).getStepIndex());
+		assertEquals(8, store.getNearest(100).getStepIndex());
+	}
+
+	@Test
+	public void undoThenNewStepDiscardsRedoCheckpoints() {
+		CheckpointStore store = new CheckpointStore(Integer.MAX_VALUE);
+		store.add(2, createSnapshot(1));
+		store.add(4, createSnapshot(1));
+		store.add(6, createSnapshot(1));
+
+		// undo back to step 5, then draw a new step: the checkpoint at 6 belongs to the discarded redo history
+		store.add(6, createSnapshot(2));
+		assertEquals(3, store.size());
+		assertEquals(4 * TILE_BYTES, store.getByteCount());
+
+		store.discardAfter(3);
+		assertEquals(1, store.size());
+		assertEquals(2, store.getLatestStepIndex());
+		assertEquals(TILE_BYTES, store.getByteCount());
+		assertEquals(2, store.getNearest(6).getStepIndex());
+
+		store.clear();
+		assertEquals(0, store.size());
+		assertEquals(0, store.getByteCount());
+	}
+
+	@Test
+	public void evictsOldestCheckpointsToFitBudget() {
+		CheckpointStore store = new CheckpointStore(TILE_BYTES * 5 / 2);
+		store.add(1, createSnapshot(1));
+		store.add(2, createSnapshot(1));
+		store.add(3, createSnapshot(1));
+
+		assertEquals(2, store.size());
+		assertEquals(2 * TILE_BYTES, store.getByteCount());
+		assertNull(store.getNearest(1));
+		assertEquals(2, store.getNearest(2).getStepIndex());
+
+		// the newest checkpoint is kept even when it alone exceeds the budget
+		store.add(4, createSnapshot(3));
+		assertEquals(1, store.size());
+		assertEquals(3 * TILE_BYTES, store.getByteCount());
+		assertEquals(4, store.getLatestStepIndex());
+	}
+}